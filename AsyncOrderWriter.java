@@ -0,0 +1,216 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Writes orders to the journal off the checkout path.
+ * - Checkouts put the order on a bounded ring buffer and return; one writer thread
+ *   ("order-writer") takes whatever has queued up, encodes it and appends it to the
+ *   journal in a single group commit, then adds the batch to the order index
+ * - The ring is lock-free for any number of producers: each slot has a sequence number,
+ *   a producer claims the next slot with one CAS on the tail and publishes the order by
+ *   bumping the slot's sequence; only the writer moves the head
+ * - Order.persisted() completes with the order's journal offset once the append has
+ *   returned, i.e. as durable as the journal's fsync policy makes it (on
+ *   disk under "always", in the page cache otherwise), or exceptionally if it failed
+ * - Backpressure: when the disk falls behind and the ring fills up, submit() waits
+ *   (yielding to the writer, then parking) until the writer frees a slot, so memory stays
+ *   bounded and orders are never dropped
+ */
+class AsyncOrderWriter implements Closeable {
+    private static final int SPINS = 100;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+    private static final Metrics.Histogram BATCH = Metrics.histogram("order_writer_batch");
+    private static final Metrics.Counter BATCHES = Metrics.counter("order_writer_batches");
+    private static final Metrics.Counter WRITTEN = Metrics.counter("order_writer_orders");
+    private static final Metrics.Counter FULL = Metrics.counter("order_writer_ring_full");
+
+    private final OrderJournal journal;
+    private final OrderCodec.Format format;
+    private final OrderStore store;
+    private final int maxBatch;
+
+    private final Order[] ring;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;                       // writer thread only
+    private volatile long done;              // orders written (or failed) so far
+
+    private final AtomicInteger submitting = new AtomicInteger();
+    private final Thread writer;
+    private volatile boolean writerParked;
+    private volatile boolean closed;
+    private volatile boolean stopping;
+
+    /**
+     * @param store    index to add written orders to, or null
+     * @param capacity ring size, rounded up to a power of two
+     * @param maxBatch most orders appended in one group commit
+     */
+    AsyncOrderWriter(OrderJournal journal, OrderCodec.Format format, OrderStore store, int capacity, int maxBatch) {
+        if (capacity < 2 || capacity > (1 << 30)) throw new IllegalArgumentException("capacity must be 2.." + (1 << 30));
+        if (maxBatch < 1) throw new IllegalArgumentException("maxBatch must be >= 1");
+        this.journal = journal;
+        this.format = format;
+        this.store = store;
+        this.maxBatch = maxBatch;
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new Order[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+        this.mask = size - 1;
+        this.writer = new Thread(this::run, "order-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    int capacity() { return ring.length; }
+
+    /**
+     * Queues order for writing, waiting for room if the ring is full. Returns
+     * order.persisted(), which fails with an IOException if the writer is closed or the
+     * append fails.
+     */
+    public CompletableFuture<Long> submit(Order order) {
+        submitting.incrementAndGet();
+        try {
+            if (closed) {
+                order.persisted().completeExceptionally(new IOException("Order writer is closed"));
+                return order.persisted();
+            }
+            for (int spins = 0; !offer(order); spins++) {
+                if (spins == 0) {
+                    FULL.increment();
+                    LockSupport.unpark(writer);
+                }
+                if (spins < SPINS) Thread.yield();
+                else LockSupport.parkNanos(this, FULL_PARK_NANOS);
+            }
+        } finally {
+            submitting.decrementAndGet();
+        }
+        if (writerParked) LockSupport.unpark(writer);
+        return order.persisted();
+    }
+
+    // Claims the next slot if it has been drained since the ring last wrapped
+    private boolean offer(Order order) {
+        while (true) {
+            long t = tail.get();
+            int i = (int) t & mask;
+            long diff = sequences.getAcquire(i) - t;
+            if (diff < 0) return false;
+            if (diff == 0 && tail.compareAndSet(t, t + 1)) {
+                ring[i] = order;
+                sequences.setRelease(i, t + 1);
+                return true;
+            }
+        }
+    }
+
+    // Takes up to max published orders off the head of the ring
+    private int drain(List<Order> into, int max) {
+        int n = 0;
+        while (n < max) {
+            int i = (int) head & mask;
+            if (sequences.getAcquire(i) != head + 1) break;
+            into.add(ring[i]);
+            ring[i] = null;
+            sequences.setRelease(i, head + ring.length);
+            head++;
+            n++;
+        }
+        return n;
+    }
+
+    private void run() {
+        List<Order> batch = new ArrayList<>(maxBatch);
+        List<byte[]> records = new ArrayList<>(maxBatch);
+        while (true) {
+            if (drain(batch, maxBatch) == 0) {
+                if (stopping) return;
+                writerParked = true;
+                if (sequences.getAcquire((int) head & mask) != head + 1 && !stopping) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+                writerParked = false;
+                continue;
+            }
+            write(batch, records);
+            done = head;
+            batch.clear();
+            records.clear();
+        }
+    }
+
+    private void write(List<Order> batch, List<byte[]> records) {
+        long t0 = Metrics.now();
+        long offset;
+        try {
+            for (Order order : batch) records.add(format.encode(order));
+            offset = journal.appendAll(records, first -> index(batch, records, first));
+        } catch (IOException | RuntimeException e) {
+            for (Order order : batch) order.persisted().completeExceptionally(e);
+            return;
+        } finally {
+            BATCH.recordSince(t0);
+        }
+        BATCHES.increment();
+        WRITTEN.add(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).persisted().complete(offset);
+            offset += records.get(i).length;
+        }
+    }
+
+    // Runs before the journal can roll over, so the offsets belong to the store's current file
+    private void index(List<Order> batch, List<byte[]> records, long offset) {
+        if (store == null) return;
+        for (int i = 0; i < batch.size(); i++) {
+            Order order = batch.get(i);
+            // The order is in the journal either way; OrderStore re-indexes the tail it misses on open
+            try {
+                store.add(OrderIdGenerator.parse(order.getId()), order.getOrderedAt().getTime(), offset);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Unable to index order " + order.getId() + ": " + e.getMessage());
+            }
+            offset += records.get(i).length;
+        }
+    }
+
+    /** Waits until every order submitted before the call has been written (or has failed). */
+    public void flush() {
+        long target = tail.get();
+        while (done < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, 50_000);
+        }
+    }
+
+    /** Stops taking orders, waits until every queued one has been written, then stops the writer. */
+    @Override
+    public void close() {
+        closed = true;
+        while (submitting.get() > 0) Thread.onSpinWait();
+        stopping = true;
+        LockSupport.unpark(writer);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
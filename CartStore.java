@@ -0,0 +1,194 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Per-session carts with bounded memory.
+ * - Carts live in a ConcurrentHashMap keyed by session id
+ * - Carts idle for longer than the idle timeout are evicted by a background sweep
+ * - Above maxCarts the least recently used carts are evicted, in batches down to
+ *   90% of the cap so the O(n) scan is paid once per many inserts
+ * - With a spill directory, evicted carts (idle or LRU) are written there as "productId qty"
+ *   lines (one file per session, named by a hash of its id) and restored the next
+ *   time their session shows up
+ *
+ * A cart evicted while a request for its session is still running may miss that
+ * request's change; LRU victims are by definition the carts nobody touched lately.
+ */
+class CartStore implements Closeable {
+    private static final class Entry {
+        final Cart cart;
+        volatile long lastAccess;
+
+        Entry(Cart cart, long now) {
+            this.cart = cart;
+            this.lastAccess = now;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> carts = new ConcurrentHashMap<>();
+    private final ProductCatalog catalog;
+    private final int maxCarts;
+    private final long idleMillis;
+    private final Path spillDir;
+    private final ScheduledExecutorService sweeper;
+    private final Object evictLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder restored = new LongAdder();
+
+    /**
+     * @param spillDir where evicted and expired carts are kept, or null to drop them
+     */
+    public CartStore(ProductCatalog catalog, int maxCarts, long idleMillis, Path spillDir) throws IOException {
+        if (maxCarts <= 0) throw new IllegalArgumentException("maxCarts must be > 0");
+        if (idleMillis <= 0) throw new IllegalArgumentException("idleMillis must be > 0");
+        this.catalog = catalog;
+        this.maxCarts = maxCarts;
+        this.idleMillis = idleMillis;
+        this.spillDir = spillDir;
+        if (spillDir != null) Files.createDirectories(spillDir);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cart-store-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleMillis / 4);
+        sweeper.scheduleWithFixedDelay(this::expireIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /** The cart for this session, restoring a spilled one or creating an empty one if needed. */
+    public Cart get(String session) {
+        long now = System.currentTimeMillis();
+        Entry e = carts.get(session);
+        if (e != null) {
+            hits.increment();
+            e.lastAccess = now;
+            return e.cart;
+        }
+        misses.increment();
+        e = carts.computeIfAbsent(session, k -> new Entry(restore(k), now));
+        e.lastAccess = now;
+        if (carts.size() > maxCarts) evictLeastRecentlyUsed();
+        return e.cart;
+    }
+
+    public int size() { return carts.size(); }
+
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public long evictions() { return evictions.sum(); }
+    public long expirations() { return expirations.sum(); }
+
+    /** Counters as "name value" lines. */
+    public String stats() {
+        return "carts_live " + carts.size() + "\n"
+                + "carts_hits " + hits.sum() + "\n"
+                + "carts_misses " + misses.sum() + "\n"
+                + "carts_evictions " + evictions.sum() + "\n"
+                + "carts_expirations " + expirations.sum() + "\n"
+                + "carts_spilled " + spilled.sum() + "\n"
+                + "carts_restored " + restored.sum() + "\n";
+    }
+
+    private void evictLeastRecentlyUsed() {
+        synchronized (evictLock) {
+            int excess = carts.size() - maxCarts * 9 / 10;
+            if (carts.size() <= maxCarts || excess <= 0) return;
+            long[] ages = new long[carts.size() + 16];
+            int n = 0;
+            for (Entry e : carts.values()) {
+                if (n == ages.length) break;
+                ages[n++] = e.lastAccess;
+            }
+            Arrays.sort(ages, 0, n);
+            long cutoff = ages[Math.min(excess, n) - 1];
+            for (Map.Entry<String, Entry> me : carts.entrySet()) {
+                if (excess <= 0) break;
+                Entry e = me.getValue();
+                if (e.lastAccess <= cutoff && carts.remove(me.getKey(), e)) {
+                    evictions.increment();
+                    spill(me.getKey(), e.cart);
+                    excess--;
+                }
+            }
+        }
+    }
+
+    private void expireIdle() {
+        long deadline = System.currentTimeMillis() - idleMillis;
+        for (Map.Entry<String, Entry> me : carts.entrySet()) {
+            Entry e = me.getValue();
+            if (e.lastAccess < deadline && carts.remove(me.getKey(), e)) {
+                expirations.increment();
+                spill(me.getKey(), e.cart);
+            }
+        }
+    }
+
+    // ---- spill ----
+
+    // Named by a SHA-256 of the session id: a fixed 43 characters whatever the id's length,
+    // and safe in a file name whatever it contains
+    private Path spillFile(String session) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(session.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        return spillDir.resolve(Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + ".cart");
+    }
+
+    private void spill(String session, Cart cart) {
+        if (spillDir == null) return;
+        StringBuilder sb = new StringBuilder();
+        synchronized (cart) {
+            if (cart.isEmpty()) return;
+            for (CartItem ci : cart.getItems()) {
+                sb.append(ci.getProduct().getId()).append(' ').append(ci.getQty()).append('\n');
+            }
+        }
+        try {
+            Files.write(spillFile(session), sb.toString().getBytes(StandardCharsets.UTF_8));
+            spilled.increment();
+        } catch (IOException ex) {
+            System.out.println("Failed to spill cart: " + ex.getMessage());
+        }
+    }
+
+    private Cart restore(String session) {
+        Cart cart = new Cart();
+        if (spillDir == null) return cart;
+        Path file = spillFile(session);
+        if (!Files.exists(file)) return cart;
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                int sp = line.indexOf(' ');
+                if (sp < 0) continue;
+                Product p = catalog.findById(Integer.parseInt(line.substring(0, sp)));
+                int qty = Integer.parseInt(line.substring(sp + 1).trim());
+                if (p != null && qty > 0) cart.add(p, qty);
+            }
+            Files.deleteIfExists(file);
+            restored.increment();
+        } catch (IOException | NumberFormatException ex) {
+            System.out.println("Failed to restore cart: " + ex.getMessage());
+        }
+        return cart;
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
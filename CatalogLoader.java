@@ -0,0 +1,343 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Bulk product loader for CSV and TSV files.
+ * - One product per line: id, name, desc, price, stock
+ *   (price in rupees with up to two decimals, e.g. 499 or 1599.50)
+ * - A first line that does not start with a digit is taken as a header and skipped
+ * - Tab-separated when the file name ends in .tsv or the first line holds a tab,
+ *   comma-separated otherwise; CSV fields may be "quoted" with "" for a literal quote
+ * - The file is memory-mapped and cut into chunks at line breaks; chunks are parsed in
+ *   parallel straight from the mapped bytes (numbers never become Strings) and added to
+ *   the catalog in file order, so a later line with the same id replaces an earlier one
+ *
+ * Malformed lines are counted and skipped. Quoted fields cannot span lines.
+ */
+class CatalogLoader {
+    private static final long MAX_CHUNK = 256L << 20;
+
+    /** What a load did. */
+    static final class Result {
+        final long rows;
+        final long skipped;
+        final long firstBadOffset; // byte offset of the first skipped line, -1 if none
+        final long nanos;
+
+        Result(long rows, long skipped, long firstBadOffset, long nanos) {
+            this.rows = rows;
+            this.skipped = skipped;
+            this.firstBadOffset = firstBadOffset;
+            this.nanos = nanos;
+        }
+
+        public double rowsPerSecond() {
+            return nanos == 0 ? 0 : rows * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            String s = String.format("%d products in %.3f s (%.0f rows/sec)", rows, nanos / 1e9, rowsPerSecond());
+            if (skipped > 0) s += ", skipped " + skipped + " malformed lines (first at byte " + firstBadOffset + ")";
+            return s;
+        }
+    }
+
+    public static Result load(Path file, ProductCatalog catalog) throws IOException {
+        return load(file, catalog, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static Result load(Path file, ProductCatalog catalog, int threads) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size == 0) return new Result(0, 0, -1, System.nanoTime() - start);
+
+            // The first line is scanned to its end, however long: a header is skipped whole
+            long firstLineEnd = lineAfter(ch, 0, size);
+            byte sep = separatorFor(file, ch, firstLineEnd);
+            long dataStart = isDigit(ch.map(FileChannel.MapMode.READ_ONLY, 0, 1).get(0)) ? 0 : firstLineEnd;
+            if (dataStart >= size) return new Result(0, 0, -1, System.nanoTime() - start); // header only
+
+            long[] bounds = chunkBounds(ch, dataStart, size, threads);
+            int chunks = bounds.length - 1;
+            List<Chunk> parsed = new ArrayList<>(chunks);
+            if (chunks == 1) {
+                parsed.add(parse(ch, bounds[0], bounds[1], sep));
+            } else {
+                ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, chunks), r -> {
+                    Thread t = new Thread(r, "catalog-loader");
+                    t.setDaemon(true);
+                    return t;
+                });
+                try {
+                    List<Future<Chunk>> futures = new ArrayList<>(chunks);
+                    for (int c = 0; c < chunks; c++) {
+                        long from = bounds[c], to = bounds[c + 1];
+                        futures.add(pool.submit(() -> parse(ch, from, to, sep)));
+                    }
+                    for (Future<Chunk> f : futures) parsed.add(f.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Catalog load interrupted", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    throw new IOException("Catalog load failed: " + cause, cause);
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+
+            long rows = 0, skipped = 0, firstBad = -1;
+            for (Chunk c : parsed) {
+                rows += c.count;
+                skipped += c.skipped;
+                if (firstBad < 0) firstBad = c.firstBad;
+            }
+            catalog.ensureCapacity(catalog.size() + (int) Math.min(rows, Integer.MAX_VALUE));
+            for (Chunk c : parsed) {
+                for (int i = 0; i < c.count; i++) catalog.add(c.products[i]);
+            }
+            return new Result(rows, skipped, firstBad, System.nanoTime() - start);
+        }
+    }
+
+    // ---- chunking ----
+
+    // Chunk start offsets (plus size at the end), each moved forward to just after a '\n'
+    private static long[] chunkBounds(FileChannel ch, long dataStart, long size, int threads) throws IOException {
+        long body = size - dataStart;
+        int chunks = (int) Math.max(Math.min(Math.max(threads, 1), body / (64 * 1024) + 1), (body + MAX_CHUNK - 1) / MAX_CHUNK);
+        long[] bounds = new long[chunks + 1];
+        bounds[0] = dataStart;
+        int n = 1;
+        for (int c = 1; c < chunks; c++) {
+            long at = Math.max(dataStart + body * c / chunks, bounds[n - 1]);
+            long next = lineAfter(ch, at, size);
+            if (next >= size) break;
+            if (next > bounds[n - 1]) bounds[n++] = next;
+        }
+        bounds[n++] = size;
+        return Arrays.copyOf(bounds, n);
+    }
+
+    private static long lineAfter(FileChannel ch, long at, long size) throws IOException {
+        long nl = indexOf(ch, at, size, (byte) '\n');
+        return nl < 0 ? size : nl + 1;
+    }
+
+    // Offset of the first b in [from, to), or -1; mapped 64 KB at a time
+    private static long indexOf(FileChannel ch, long from, long to, byte b) throws IOException {
+        while (from < to) {
+            int len = (int) Math.min(64 * 1024, to - from);
+            ByteBuffer window = ch.map(FileChannel.MapMode.READ_ONLY, from, len);
+            for (int i = 0; i < len; i++) {
+                if (window.get(i) == b) return from + i;
+            }
+            from += len;
+        }
+        return -1;
+    }
+
+    private static byte separatorFor(Path file, FileChannel ch, long firstLineEnd) throws IOException {
+        if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".tsv")) return '\t';
+        return indexOf(ch, 0, firstLineEnd, (byte) '\t') >= 0 ? (byte) '\t' : (byte) ',';
+    }
+
+    // ---- parsing ----
+
+    private static final class Chunk {
+        Product[] products = new Product[1024];
+        int count;
+        long skipped;
+        long firstBad = -1;
+
+        void add(Product p) {
+            if (count == products.length) products = Arrays.copyOf(products, count * 2);
+            products[count++] = p;
+        }
+    }
+
+    // Cursor over one mapped chunk; fields are parsed in place, text is copied out once
+    private static final class Parser {
+        final MappedByteBuffer buf;
+        final int limit;
+        final byte sep;
+        byte[] scratch = new byte[256];
+        int pos;
+
+        Parser(MappedByteBuffer buf, byte sep) {
+            this.buf = buf;
+            this.limit = buf.limit();
+            this.sep = sep;
+        }
+
+        /** Parses the line at pos; returns null if it is malformed. Always leaves pos at the next line. */
+        Product product() {
+            try {
+                long id = number();
+                String name = text();
+                String desc = text();
+                long price = price();
+                long stock = number();
+                skipSpaces();
+                if (pos < limit && buf.get(pos) == '\r') pos++;
+                if (pos < limit && buf.get(pos) != '\n') return null;
+                if (id <= 0 || id > Integer.MAX_VALUE || stock > Integer.MAX_VALUE) return null;
+                return new Product((int) id, name, desc, price, (int) stock);
+            } catch (NumberFormatException e) {
+                return null;
+            } finally {
+                skipLine();
+            }
+        }
+
+        boolean blankLine() {
+            int i = pos;
+            while (i < limit && (buf.get(i) == ' ' || buf.get(i) == '\r')) i++;
+            return i >= limit || buf.get(i) == '\n';
+        }
+
+        void skipLine() {
+            while (pos < limit && buf.get(pos) != '\n') pos++;
+            if (pos < limit) pos++;
+        }
+
+        // Unsigned integer field
+        long number() {
+            skipSpaces();
+            long v = 0;
+            int digits = 0;
+            while (pos < limit) {
+                byte b = buf.get(pos);
+                if (!isDigit(b)) break;
+                v = v * 10 + (b - '0');
+                if (++digits > 18) throw new NumberFormatException("number too long");
+                pos++;
+            }
+            if (digits == 0) throw new NumberFormatException("number expected at " + pos);
+            endField();
+            return v;
+        }
+
+        // Rupees with an optional '.' and up to two decimals, returned in paise
+        long price() {
+            skipSpaces();
+            if (pos < limit && buf.get(pos) == '"') {
+                pos++;
+                long v = amount();
+                if (pos >= limit || buf.get(pos) != '"') throw new NumberFormatException("unterminated quote");
+                pos++;
+                endField();
+                return v;
+            }
+            long v = amount();
+            endField();
+            return v;
+        }
+
+        private long amount() {
+            long major = 0;
+            int digits = 0;
+            while (pos < limit && isDigit(buf.get(pos))) {
+                major = major * 10 + (buf.get(pos++) - '0');
+                if (++digits > 15) throw new NumberFormatException("price too large");
+            }
+            int minor = 0;
+            int decimals = 0;
+            if (pos < limit && buf.get(pos) == '.') {
+                pos++;
+                while (pos < limit && isDigit(buf.get(pos))) {
+                    if (++decimals > 2) throw new NumberFormatException("more than two decimals");
+                    minor = minor * 10 + (buf.get(pos++) - '0');
+                }
+            }
+            if (digits == 0 && decimals == 0) throw new NumberFormatException("price expected at " + pos);
+            if (decimals == 1) minor *= 10;
+            return Money.of(major, minor);
+        }
+
+        // Text field, quoted or not, decoded as UTF-8
+        String text() {
+            skipSpaces();
+            int n = 0;
+            if (sep != '\t' && pos < limit && buf.get(pos) == '"') {
+                pos++;
+                while (true) {
+                    if (pos >= limit) throw new NumberFormatException("unterminated quote");
+                    byte b = buf.get(pos++);
+                    if (b == '"') {
+                        if (pos < limit && buf.get(pos) == '"') pos++;
+                        else break;
+                    } else if (b == '\n') {
+                        throw new NumberFormatException("unterminated quote");
+                    }
+                    n = put(n, b);
+                }
+                skipSpaces();
+            } else {
+                int start = pos;
+                while (pos < limit) {
+                    byte b = buf.get(pos);
+                    if (b == sep || b == '\n' || b == '\r') break;
+                    pos++;
+                }
+                int end = pos;
+                while (end > start && buf.get(end - 1) == ' ') end--;
+                n = end - start;
+                if (n > scratch.length) scratch = new byte[Math.max(n, scratch.length * 2)];
+                buf.get(start, scratch, 0, n);
+            }
+            endField();
+            return new String(scratch, 0, n, StandardCharsets.UTF_8);
+        }
+
+        private int put(int n, byte b) {
+            if (n == scratch.length) scratch = Arrays.copyOf(scratch, n * 2);
+            scratch[n] = b;
+            return n + 1;
+        }
+
+        private void skipSpaces() {
+            while (pos < limit && buf.get(pos) == ' ') pos++;
+        }
+
+        // Steps over the separator; the last field may instead end at the line break
+        private void endField() {
+            skipSpaces();
+            if (pos < limit && buf.get(pos) == sep) pos++;
+        }
+    }
+
+    private static Chunk parse(FileChannel ch, long from, long to, byte sep) throws IOException {
+        Chunk chunk = new Chunk();
+        Parser in = new Parser(ch.map(FileChannel.MapMode.READ_ONLY, from, to - from), sep);
+        while (in.pos < in.limit) {
+            if (in.blankLine()) {
+                in.skipLine();
+                continue;
+            }
+            int lineStart = in.pos;
+            Product p = in.product();
+            if (p != null) {
+                chunk.add(p);
+            } else {
+                if (chunk.firstBad < 0) chunk.firstBad = from + lineStart;
+                chunk.skipped++;
+            }
+        }
+        return chunk;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
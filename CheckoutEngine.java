@@ -0,0 +1,108 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Reserves stock for a whole order atomically.
+ * - Products map onto a fixed set of lock stripes by id, so unrelated orders
+ *   rarely share a lock and no single lock serializes the shop
+ * - An order locks every stripe its lines touch, always in ascending stripe
+ *   order, so two orders can never wait on each other in a cycle
+ * - Under the locks every line is validated first and only then reserved, so
+ *   other orders never see (or fail because of) a half-reserved cart
+ */
+class CheckoutEngine {
+    // Spinning only helps when the lock holder can be running on another core
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+
+    private final ProductCatalog catalog;
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public CheckoutEngine(ProductCatalog catalog) {
+        this(catalog, 256);
+    }
+
+    public CheckoutEngine(ProductCatalog catalog, int stripeCount) {
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("stripeCount must be a power of two");
+        }
+        this.catalog = catalog;
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) stripes[i] = new ReentrantLock();
+        this.mask = stripeCount - 1;
+    }
+
+    /**
+     * Reserves every line or none.
+     *
+     * @return null on success, otherwise the first line that could not be reserved
+     */
+    public CartItem reserve(Collection<CartItem> items) {
+        int n = items.size();
+        Product[] products = new Product[n];
+        int[] qty = new int[n];
+        int[] locks = new int[n];
+        int i = 0;
+        for (CartItem ci : items) {
+            Product p = catalog.findById(ci.getProduct().getId());
+            if (p == null) return ci;
+            products[i] = p;
+            qty[i] = ci.getQty();
+            locks[i] = stripeOf(p.getId());
+            i++;
+        }
+        Arrays.sort(locks);
+        int held = 0;
+        try {
+            for (int k = 0; k < n; k++) {
+                if (k > 0 && locks[k] == locks[k - 1]) continue;
+                acquire(stripes[locks[k]]);
+                locks[held++] = locks[k];
+            }
+            i = 0;
+            for (CartItem ci : items) {
+                if (qty[i] > products[i].getStock()) return ci;
+                i++;
+            }
+            // Validated under the locks; a failure here means stock was changed without
+            // going through the engine (e.g. setStock), so undo what was taken.
+            for (int k = 0; k < n; k++) {
+                if (!products[k].tryReserve(qty[k])) {
+                    for (int r = 0; r < k; r++) products[r].release(qty[r]);
+                    return itemAt(items, k);
+                }
+            }
+            return null;
+        } finally {
+            for (int k = held - 1; k >= 0; k--) stripes[locks[k]].unlock();
+        }
+    }
+
+    /** Returns stock taken by reserve, e.g. when an order could not be recorded. */
+    public void release(Collection<CartItem> items) {
+        for (CartItem ci : items) {
+            Product p = catalog.findById(ci.getProduct().getId());
+            if (p != null) p.release(ci.getQty());
+        }
+    }
+
+    // Critical sections are a few loads and CASes, so spin briefly before parking the thread
+    private static void acquire(ReentrantLock lock) {
+        for (int spin = 0; spin < SPINS; spin++) {
+            if (lock.tryLock()) return;
+            Thread.onSpinWait();
+        }
+        lock.lock();
+    }
+
+    private int stripeOf(int productId) {
+        int h = productId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static CartItem itemAt(Collection<CartItem> items, int index) {
+        Iterator<CartItem> it = items.iterator();
+        for (int k = 0; k < index; k++) it.next();
+        return it.next();
+    }
+}
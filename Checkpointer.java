@@ -0,0 +1,105 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+
+/*
+ * Keeps the stock snapshot ("<orders file>.snap") close to the end of the orders journal,
+ * so recovery after a crash only replays the last few seconds of orders.
+ * - Every interval a background thread replays the journal from the last snapshot's
+ *   offset (StockRecovery.advance) and writes the result as the new snapshot
+ * - The snapshot is computed from the journal alone, into arrays of its own: it never
+ *   reads live stock or takes a checkout lock, so checkouts are not paused and the stock
+ *   in a snapshot always matches the journal offset it records
+ * - Each snapshot is a new immutable copy, renamed over the old file once complete
+ * - Products added to the catalog after startup are remembered with their starting stock
+ *   (through ProductCatalog.Listener) so their sales can be accounted for as well
+ * - The sales totals snapshot ("<orders file>.sales", see SalesAggregates) is moved
+ *   forward the same way on each checkpoint
+ * - Offsets are logical across the segments of the order log (see OrderSegments), and
+ *   OrderSegments rolls the active file through checkpointAfter: the roll itself only holds
+ *   appends off while the file is sealed, and the checkpoint that follows replays the newly
+ *   sealed segment like any other stretch of the journal
+ */
+class Checkpointer implements Closeable, ProductCatalog.Listener {
+    private final Path ordersFile;
+    private final OrderCodec.Format format;
+    private final ProductCatalog catalog;
+    private final ConcurrentHashMap<Integer, Integer> addedStock = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private InventorySnapshot last;
+    private SalesAggregates.Snapshot lastSales;
+
+    /**
+     * Starts checkpointing every intervalMillis. ordersFile should already have a snapshot
+     * covering every product in catalog (StockRecovery.recover writes one at startup).
+     */
+    public Checkpointer(Path ordersFile, OrderCodec.Format format, ProductCatalog catalog, long intervalMillis)
+            throws IOException {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("intervalMillis must be > 0");
+        this.ordersFile = ordersFile;
+        this.format = format;
+        this.catalog = catalog;
+        this.last = InventorySnapshot.read(InventorySnapshot.fileFor(ordersFile));
+        this.lastSales = SalesAggregates.Snapshot.read(SalesAggregates.Snapshot.fileFor(ordersFile));
+        catalog.addListener(this);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "checkpointer");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::checkpointQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void added(int position, Product p) {
+        addedStock.putIfAbsent(p.getId(), p.getStock());
+    }
+
+    /** Brings the snapshots up to the end of the journal now; returns the orders the stock one took in. */
+    public synchronized long checkpoint() throws IOException {
+        SalesAggregates.Snapshot sales = SalesAggregates.Snapshot.advance(lastSales, ordersFile, format, catalog, 1);
+        if (lastSales == null || sales.journalOffset != lastSales.journalOffset) {
+            sales.write(SalesAggregates.Snapshot.fileFor(ordersFile));
+            lastSales = sales;
+        }
+
+        StockRecovery.Replay r = StockRecovery.advance(ordersFile, format, catalog, last,
+                p -> addedStock.getOrDefault(p.getId(), -1), 1);
+        if (last != null && r.snapshot.journalOffset == last.journalOffset && r.snapshot.size() == last.size()) {
+            return 0;
+        }
+        r.snapshot.write(InventorySnapshot.fileFor(ordersFile));
+        last = r.snapshot;
+        return r.orders;
+    }
+
+    /**
+     * Runs roll, then checkpoints before another checkpoint can start, so the snapshots
+     * catch up over whatever roll sealed without holding up the journal while they do.
+     */
+    public synchronized void checkpointAfter(OrderJournal.Rollover roll) throws IOException {
+        roll.run();
+        checkpoint();
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    /** Stops the timer and takes a last checkpoint; call once the journal is closed. */
+    @Override
+    public void close() throws IOException {
+        timer.shutdown(); // lets a checkpoint in progress finish; interrupting it would close its channel
+        try {
+            timer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpoint();
+    }
+}
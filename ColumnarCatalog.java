@@ -0,0 +1,222 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Product catalog stored column by column, for catalogs too large for one Product object each.
+ * - id, price and stock sit in parallel primitive arrays indexed by catalog position
+ * - name and desc are UTF-8 bytes appended to one shared arena; textStart[i] is where
+ *   product i's name begins, descStart[i] where its desc begins, and textStart[i + 1]
+ *   where it ends, so a product costs two ints of text bookkeeping instead of two Strings
+ * - Lookup by id uses the same IdIndex as ProductCatalog
+ * - Row is a flyweight view: one reusable cursor moved over positions, reading columns
+ *   on demand
+ *
+ * Stock changes go through tryReserve/release, a VarHandle CAS on the stock column like
+ * Product.tryReserve. get(i) and findById only copy a row out into a detached Product for
+ * display or export: reserving on that copy does not touch the catalog, so carts and
+ * checkout stay on ProductCatalog.
+ * The arena is a single byte array, so name and desc text is limited to 2 GB in total.
+ */
+class ColumnarCatalog {
+    private static final VarHandle STOCK = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private int[] ids;
+    private long[] prices;
+    private int[] stocks;
+    private int[] textStart;
+    private int[] descStart;
+    private byte[] arena;
+    private int arenaSize;
+    private int size;
+
+    /** Upper bound on the arena allocated up front, in bytes. */
+    private static final int MAX_INITIAL_ARENA = 1 << 20;
+
+    private final IdIndex index;
+
+    public ColumnarCatalog() {
+        this(16);
+    }
+
+    public ColumnarCatalog(int expectedSize) {
+        int cap = Math.max(expectedSize, 4);
+        ids = new int[cap];
+        prices = new long[cap];
+        stocks = new int[cap];
+        textStart = new int[cap + 1];
+        descStart = new int[cap];
+        // a text guess, not a reservation: capped so a large expectedSize neither overflows nor
+        // preallocates hundreds of MB up front; ensureArena grows it as text actually arrives
+        arena = new byte[(int) Math.min(cap * 32L, MAX_INITIAL_ARENA)];
+        index = new IdIndex(cap);
+    }
+
+    /** Copies every product of catalog, in order. */
+    public static ColumnarCatalog of(ProductCatalog catalog) {
+        ColumnarCatalog c = new ColumnarCatalog(catalog.size());
+        for (int i = 0; i < catalog.size(); i++) c.add(catalog.get(i));
+        c.trimToSize();
+        return c;
+    }
+
+    public void add(Product p) {
+        add(p.getId(), p.getName(), p.getDesc(), p.getPrice(), p.getStock());
+    }
+
+    /**
+     * Appends a product. Ids must be unique: the arena is append-only, so replacing a
+     * product in place is not supported.
+     */
+    public void add(int id, String name, String desc, long price, int stock) {
+        if (index.get(id) >= 0) throw new IllegalArgumentException("duplicate product id " + id);
+        if (size == ids.length) grow(Math.max(size * 2, 4));
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        byte[] d = desc.getBytes(StandardCharsets.UTF_8);
+        ensureArena((long) arenaSize + n.length + d.length);
+        index.putIfAbsent(id, size);
+        System.arraycopy(n, 0, arena, arenaSize, n.length);
+        System.arraycopy(d, 0, arena, arenaSize + n.length, d.length);
+        ids[size] = id;
+        prices[size] = price;
+        stocks[size] = stock;
+        textStart[size] = arenaSize;
+        descStart[size] = arenaSize + n.length;
+        arenaSize += n.length + d.length;
+        textStart[size + 1] = arenaSize;
+        size++;
+    }
+
+    public int size() { return size; }
+
+    /** Catalog position of the product with this id, or -1. */
+    public int positionOf(int id) {
+        return index.get(id);
+    }
+
+    public int idAt(int position) { return ids[check(position)]; }
+    public long priceAt(int position) { return prices[check(position)]; }
+    public int stockAt(int position) { return (int) STOCK.getVolatile(stocks, check(position)); }
+
+    public String nameAt(int position) {
+        check(position);
+        return new String(arena, textStart[position], descStart[position] - textStart[position], StandardCharsets.UTF_8);
+    }
+
+    public String descAt(int position) {
+        check(position);
+        return new String(arena, descStart[position], textStart[position + 1] - descStart[position], StandardCharsets.UTF_8);
+    }
+
+    public void setPrice(int position, long price) {
+        prices[check(position)] = price;
+    }
+
+    /** Atomically takes qty units out of stock; returns false (and changes nothing) if fewer are left. */
+    public boolean tryReserve(int position, int qty) {
+        if (qty <= 0) throw new IllegalArgumentException("qty must be >= 1");
+        check(position);
+        int current;
+        do {
+            current = (int) STOCK.getVolatile(stocks, position);
+            if (qty > current) return false;
+        } while (!STOCK.compareAndSet(stocks, position, current, current - qty));
+        return true;
+    }
+
+    public void release(int position, int qty) {
+        STOCK.getAndAdd(stocks, check(position), qty);
+    }
+
+    /** Total value of the stock on hand (price x stock summed over the catalog), in minor units. */
+    public long stockValue() {
+        long total = 0;
+        for (int i = 0; i < size; i++) total += prices[i] * stocks[i];
+        return total;
+    }
+
+    /** Releases the spare capacity left by growth, e.g. once a bulk load is done. */
+    public void trimToSize() {
+        ids = Arrays.copyOf(ids, size);
+        prices = Arrays.copyOf(prices, size);
+        stocks = Arrays.copyOf(stocks, size);
+        textStart = Arrays.copyOf(textStart, size + 1);
+        descStart = Arrays.copyOf(descStart, size);
+        arena = Arrays.copyOf(arena, arenaSize);
+    }
+
+    /**
+     * A detached Product copied from the columns at position: later changes to either are not
+     * shared, so reserve stock with tryReserve(position), not on the copy.
+     */
+    public Product get(int position) {
+        return new Product(idAt(position), nameAt(position), descAt(position), priceAt(position), stockAt(position));
+    }
+
+    public Product findById(int id) {
+        int position = positionOf(id);
+        return position < 0 ? null : get(position);
+    }
+
+    /** A flyweight cursor, initially before the first product; see Row. */
+    public Row row() {
+        return new Row();
+    }
+
+    /*
+     * Reusable view of one catalog position. Moving it allocates nothing; only getName
+     * and getDesc build Strings, and appendName writes straight from the arena.
+     */
+    final class Row {
+        private int position = -1;
+
+        /** Moves to the next product; false once past the last one. */
+        public boolean next() {
+            if (position + 1 >= size) return false;
+            position++;
+            return true;
+        }
+
+        public Row moveTo(int position) {
+            this.position = check(position);
+            return this;
+        }
+
+        public int position() { return position; }
+        public int getId() { return ids[position]; }
+        public long getPrice() { return prices[position]; }
+        public int getStock() { return (int) STOCK.getVolatile(stocks, position); }
+        public String getName() { return nameAt(position); }
+        public String getDesc() { return descAt(position); }
+
+        /** Appends the name without creating an intermediate String when it is plain ASCII. */
+        public StringBuilder appendName(StringBuilder sb) {
+            int from = textStart[position], to = descStart[position];
+            for (int i = from; i < to; i++) {
+                if (arena[i] < 0) return sb.append(getName());
+            }
+            for (int i = from; i < to; i++) sb.append((char) arena[i]);
+            return sb;
+        }
+    }
+
+    private int check(int position) {
+        if (position < 0 || position >= size) throw new IndexOutOfBoundsException("position " + position + ", size " + size);
+        return position;
+    }
+
+    private void grow(int cap) {
+        ids = Arrays.copyOf(ids, cap);
+        prices = Arrays.copyOf(prices, cap);
+        stocks = Arrays.copyOf(stocks, cap);
+        textStart = Arrays.copyOf(textStart, cap + 1);
+        descStart = Arrays.copyOf(descStart, cap);
+    }
+
+    private void ensureArena(long needed) {
+        if (needed <= arena.length) return;
+        if (needed > Integer.MAX_VALUE - 8) throw new IllegalStateException("catalog text exceeds 2 GB");
+        arena = Arrays.copyOf(arena, (int) Math.min(Math.max(needed, (long) arena.length * 2), Integer.MAX_VALUE - 8));
+    }
+}
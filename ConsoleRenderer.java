@@ -0,0 +1,69 @@
+import java.io.PrintStream;
+
+/*
+ * Builds console listings in one reusable StringBuilder and writes them out in
+ * large chunks, instead of a String.format plus a synchronized println per line.
+ * Numbers and money are appended digit by digit (StringBuilder.append / Money.appendTo).
+ */
+class ConsoleRenderer {
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+    private static final String NL = System.lineSeparator();
+
+    private final PrintStream out;
+    private final StringBuilder buf = new StringBuilder(FLUSH_THRESHOLD + 1024);
+
+    public ConsoleRenderer(PrintStream out) {
+        this.out = out;
+    }
+
+    public ConsoleRenderer line(String text) {
+        buf.append(text).append(NL);
+        return spill();
+    }
+
+    /** "[1] Wireless Mouse - ₹499.00 (stock: 10) - Ergonomic mouse" */
+    public ConsoleRenderer product(Product p) {
+        appendProduct(buf, p).append(NL);
+        return spill();
+    }
+
+    /** "1. Wireless Mouse x 2 = ₹998.00" */
+    public ConsoleRenderer cartLine(int index, CartItem ci) {
+        appendCartItem(buf.append(index).append(". "), ci).append(NL);
+        return spill();
+    }
+
+    public ConsoleRenderer money(String label, long amount) {
+        Money.appendTo(buf.append(label), amount).append(NL);
+        return spill();
+    }
+
+    /** Writes whatever is buffered. */
+    public void flush() {
+        if (buf.length() > 0) {
+            out.append(buf);
+            buf.setLength(0);
+        }
+        out.flush();
+    }
+
+    // Keeps the buffer bounded on very long listings
+    private ConsoleRenderer spill() {
+        if (buf.length() >= FLUSH_THRESHOLD) {
+            out.append(buf);
+            buf.setLength(0);
+        }
+        return this;
+    }
+
+    static StringBuilder appendProduct(StringBuilder sb, Product p) {
+        sb.append('[').append(p.getId()).append("] ").append(p.getName()).append(" - ");
+        Money.appendTo(sb, p.getPrice());
+        return sb.append(" (stock: ").append(p.getStock()).append(") - ").append(p.getDesc());
+    }
+
+    static StringBuilder appendCartItem(StringBuilder sb, CartItem ci) {
+        sb.append(ci.getProduct().getName()).append(" x ").append(ci.getQty()).append(" = ");
+        return Money.appendTo(sb, ci.getItemTotal());
+    }
+}
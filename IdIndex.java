@@ -0,0 +1,77 @@
+/*
+ * Open-addressing hash index from product id to catalog position, shared by
+ * ProductCatalog and ColumnarCatalog.
+ * - keys and slots are plain int arrays, so lookups never box an Integer
+ * - Linear probing over a table kept at most half full
+ * - Entries are only ever added; a catalog replaces a product by keeping its position
+ */
+final class IdIndex {
+    private static final int EMPTY = 0;        // slot marker; stored values are position + 1
+    private static final float MAX_LOAD = 0.5f;
+
+    private int[] keys;
+    private int[] slots;
+    private int mask;
+    private int size;
+
+    IdIndex(int expectedSize) {
+        int cap = tableSizeFor((int) Math.ceil(Math.max(expectedSize, 4) / MAX_LOAD));
+        keys = new int[cap];
+        slots = new int[cap];
+        mask = cap - 1;
+    }
+
+    /** Catalog position of id, or -1. */
+    int get(int id) {
+        return slots[indexOf(id)] - 1;
+    }
+
+    /** Maps id to position unless it is already mapped; returns the existing position, or -1 if added. */
+    int putIfAbsent(int id, int position) {
+        int slot = indexOf(id);
+        if (slots[slot] != EMPTY) return slots[slot] - 1;
+        keys[slot] = id;
+        slots[slot] = position + 1;
+        if (++size > keys.length * MAX_LOAD) rehash(keys.length * 2);
+        return -1;
+    }
+
+    /** Grows the table up front for about this many ids. */
+    void ensureCapacity(int expectedSize) {
+        if (expectedSize > keys.length * MAX_LOAD) rehash(tableSizeFor((int) Math.ceil(expectedSize / MAX_LOAD)));
+    }
+
+    // Linear probing; returns either the slot holding id or the empty slot where it belongs.
+    private int indexOf(int id) {
+        int i = mix(id) & mask;
+        while (slots[i] != EMPTY && keys[i] != id) i = (i + 1) & mask;
+        return i;
+    }
+
+    private void rehash(int newCap) {
+        int[] oldKeys = keys, oldSlots = slots;
+        keys = new int[newCap];
+        slots = new int[newCap];
+        mask = newCap - 1;
+        for (int n = 0; n < oldSlots.length; n++) {
+            if (oldSlots[n] == EMPTY) continue;
+            int slot = indexOf(oldKeys[n]);
+            keys[slot] = oldKeys[n];
+            slots[slot] = oldSlots[n];
+        }
+    }
+
+    // Spreads sequential ids across the table (murmur3 finalizer).
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int n) {
+        int cap = Integer.highestOneBit(Math.max(n - 1, 1)) << 1;
+        return Math.max(cap, 8);
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/*
+ * Stock levels as of a point in the orders journal, kept next to it as "<orders file>.snap".
+ * - journalOffset is how much of the journal the levels account for: every order before
+ *   that byte offset has been taken out of stock, none after it
+ * - Layout: "SNAP", version, journal offset, product count, (id, stock) pairs sorted by
+ *   id, then a CRC32 of everything before it
+ * - Written to a temp file and renamed over the old one, so a crash mid-write leaves the
+ *   previous snapshot in place
+ */
+final class InventorySnapshot {
+    private static final int MAGIC = 0x534E4150; // "SNAP"
+    private static final int VERSION = 1;
+
+    final long journalOffset;
+    private final int[] ids;
+    private final int[] stocks;
+
+    /** ids must be sorted ascending, one stock per id. */
+    InventorySnapshot(long journalOffset, int[] ids, int[] stocks) {
+        this.journalOffset = journalOffset;
+        this.ids = ids;
+        this.stocks = stocks;
+    }
+
+    static Path fileFor(Path ordersFile) {
+        return ordersFile.resolveSibling(ordersFile.getFileName() + ".snap");
+    }
+
+    public int size() { return ids.length; }
+
+    int idAt(int i) { return ids[i]; }
+    int stockAt(int i) { return stocks[i]; }
+
+    /** Stock recorded for id, or fallback if the snapshot has none. */
+    public int stockOf(int id, int fallback) {
+        int i = Arrays.binarySearch(ids, id);
+        return i >= 0 ? stocks[i] : fallback;
+    }
+
+    /** The snapshot in file, or null if there is none. */
+    static InventorySnapshot read(Path file) throws IOException {
+        if (Files.notExists(file)) return null;
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buf.remaining() < 24 || buf.getInt() != MAGIC) throw new IOException(file + " is not a snapshot");
+        int version = buf.getInt();
+        if (version != VERSION) throw new IOException(file + ": unsupported snapshot version " + version);
+        long offset = buf.getLong();
+        int count = buf.getInt();
+        if (count < 0 || buf.remaining() != count * 8L + 4) throw new IOException(file + " is truncated");
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.capacity() - 4);
+        if ((int) crc.getValue() != buf.getInt(buf.capacity() - 4)) throw new IOException(file + " fails its checksum");
+        int[] ids = new int[count];
+        int[] stocks = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = buf.getInt();
+            stocks[i] = buf.getInt();
+        }
+        return new InventorySnapshot(offset, ids, stocks);
+    }
+
+    void write(Path file) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(20 + ids.length * 8 + 4);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(journalOffset).putInt(ids.length);
+        for (int i = 0; i < ids.length; i++) buf.putInt(ids[i]).putInt(stocks[i]);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, buf.array());
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
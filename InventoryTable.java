@@ -0,0 +1,155 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Stock levels kept in a memory-mapped file, so they outlive the process.
+ * - File layout: 16-byte header ("INVT", version, slot count), then one 8-byte slot
+ *   per product id at HEADER + id * 8: an int "set" marker and the int stock
+ * - Stock is read and changed with VarHandle volatile/CAS access on the mapped buffer,
+ *   so concurrent checkouts (and other processes mapping the same file) never oversell
+ * - Opening maps the file and nothing else: no replay, whatever the catalog size
+ * - The file grows (and is remapped) when an id beyond the current slots shows up;
+ *   the file is sparse, so unused id ranges cost no disk
+ *
+ * Writes land in the page cache straight away and survive a crash of the JVM; they are
+ * forced to disk on close. Ids are limited to what one mapping can address (~268M).
+ */
+class InventoryTable implements Closeable {
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final int MAGIC = 0x494E5654; // "INVT"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int SLOT = 8;
+    private static final int SET = 1;
+    private static final long MAX_BYTES = Integer.MAX_VALUE & ~(SLOT - 1);
+
+    private final FileChannel channel;
+    private final boolean created;
+    private volatile MappedByteBuffer map;
+
+    private InventoryTable(FileChannel channel, MappedByteBuffer map, boolean created) {
+        this.channel = channel;
+        this.map = map;
+        this.created = created;
+    }
+
+    /** Opens (or creates) the table in file. */
+    public static InventoryTable open(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = ch.size();
+            boolean created = size == 0;
+            if (created) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.nativeOrder());
+                header.putInt(MAGIC).putInt(VERSION).putLong(0).flip();
+                while (header.hasRemaining()) ch.write(header, header.position());
+                size = HEADER;
+            }
+            if (size < HEADER) throw new IOException(file + " is not an inventory file");
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(size, MAX_BYTES));
+            map.order(ByteOrder.nativeOrder());
+            if (map.getInt(0) != MAGIC) throw new IOException(file + " is not an inventory file");
+            if (map.getInt(4) != VERSION) throw new IOException(file + ": unsupported inventory version " + map.getInt(4));
+            return new InventoryTable(ch, map, created);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /** Whether open created the file, i.e. the table holds no stock from an earlier run. */
+    public boolean isNew() {
+        return created;
+    }
+
+    /** Stored stock for id, or 0 if none. */
+    public int stock(int id) {
+        int at = offsetOf(id);
+        MappedByteBuffer m = map;
+        return at + SLOT <= m.capacity() ? (int) INT.getVolatile(m, at + 4) : 0;
+    }
+
+    public void setStock(int id, int stock) {
+        MappedByteBuffer m = slot(id);
+        int at = offsetOf(id);
+        INT.setVolatile(m, at + 4, stock);
+        INT.setVolatile(m, at, SET);
+    }
+
+    /** Stores stock for id unless the table already has a value; returns the value now stored. */
+    public int initStock(int id, int stock) {
+        MappedByteBuffer m = slot(id);
+        int at = offsetOf(id);
+        synchronized (this) {
+            if ((int) INT.getVolatile(m, at) == SET) return (int) INT.getVolatile(m, at + 4);
+            INT.setVolatile(m, at + 4, stock);
+            INT.setVolatile(m, at, SET);
+            return stock;
+        }
+    }
+
+    /** Atomically takes qty units of id out of stock; returns false (and changes nothing) if fewer are left. */
+    public boolean tryReserve(int id, int qty) {
+        if (qty <= 0) throw new IllegalArgumentException("qty must be >= 1");
+        MappedByteBuffer m = slot(id);
+        int at = offsetOf(id) + 4;
+        int current;
+        do {
+            current = (int) INT.getVolatile(m, at);
+            if (qty > current) return false;
+        } while (!INT.compareAndSet(m, at, current, current - qty));
+        return true;
+    }
+
+    /** Gives back units taken by tryReserve. */
+    public void release(int id, int qty) {
+        INT.getAndAdd(slot(id), offsetOf(id) + 4, qty);
+    }
+
+    /** Forces changes to disk. */
+    public void force() {
+        map.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private static int offsetOf(int id) {
+        if (id < 0 || HEADER + (long) id * SLOT + SLOT > MAX_BYTES) throw new IllegalArgumentException("product id out of range: " + id);
+        return HEADER + id * SLOT;
+    }
+
+    // The current mapping, grown first if it does not cover id's slot yet
+    private MappedByteBuffer slot(int id) {
+        MappedByteBuffer m = map;
+        int end = offsetOf(id) + SLOT;
+        return end <= m.capacity() ? m : grow(end);
+    }
+
+    // Old mappings stay valid: they share the file's pages, so updates through them are not lost
+    private synchronized MappedByteBuffer grow(int end) {
+        MappedByteBuffer m = map;
+        if (end <= m.capacity()) return m;
+        long size = Math.min(Math.max((long) end, (long) m.capacity() * 2), MAX_BYTES);
+        try {
+            m = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to grow inventory file: " + e.getMessage(), e);
+        }
+        m.order(ByteOrder.nativeOrder());
+        m.putLong(8, (size - HEADER) / SLOT);
+        map = m;
+        return m;
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.Arrays;
+
+/*
+ * Two long sums per int key, for tallies built while scanning orders (units and revenue
+ * per product, orders and revenue per day, quantity sold per product).
+ * - Open addressing over an int key array with parallel long columns, so adding to a
+ *   key never boxes; the table doubles once it is half full
+ * - Tables filled by parallel chunks are combined with merge
+ */
+final class KeyTotals {
+    private int[] keys = new int[64];
+    private long[] a = new long[64];
+    private long[] b = new long[64];
+    private boolean[] used = new boolean[64];
+    private int size;
+
+    void add(int key, long da, long db) {
+        int i = slot(key);
+        if (!used[i]) {
+            used[i] = true;
+            keys[i] = key;
+            if (++size > keys.length / 2) {
+                rehash();
+                i = slot(key);
+            }
+        }
+        a[i] += da;
+        b[i] += db;
+    }
+
+    long a(int key) {
+        int i = slot(key);
+        return used[i] ? a[i] : 0;
+    }
+
+    long b(int key) {
+        int i = slot(key);
+        return used[i] ? b[i] : 0;
+    }
+
+    /** The keys present, in ascending order. */
+    int[] keys() {
+        int[] out = new int[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) out[n++] = keys[i];
+        }
+        Arrays.sort(out);
+        return out;
+    }
+
+    void merge(KeyTotals other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.used[i]) add(other.keys[i], other.a[i], other.b[i]);
+        }
+    }
+
+    void forEach(OrderAnalytics.Entries action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) action.accept(keys[i], a[i], b[i]);
+        }
+    }
+
+    // Keys with the n largest a (or b) values, largest first; ties go to the lower key
+    int[] top(int n, boolean byB) {
+        int[] ids = new int[Math.min(Math.max(n, 0), size)];
+        long[] best = new long[ids.length];
+        int count = 0;
+        for (int i = 0; i < keys.length && ids.length > 0; i++) {
+            if (!used[i]) continue;
+            long v = byB ? b[i] : a[i];
+            int k = keys[i];
+            if (count == ids.length && !better(v, k, best[count - 1], ids[count - 1])) continue;
+            int at = Math.min(count, ids.length - 1);
+            while (at > 0 && better(v, k, best[at - 1], ids[at - 1])) {
+                best[at] = best[at - 1];
+                ids[at] = ids[at - 1];
+                at--;
+            }
+            best[at] = v;
+            ids[at] = k;
+            if (count < ids.length) count++;
+        }
+        return ids;
+    }
+
+    private static boolean better(long v, int k, long otherV, int otherK) {
+        return v > otherV || (v == otherV && k < otherK);
+    }
+
+    // Fibonacci hashing with the high bits folded in, as CheckoutEngine's stripes
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int h = key * 0x9E3779B9;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (used[i] && keys[i] != key) i = (i + 1) & mask;
+        return i;
+    }
+
+    private void rehash() {
+        int[] k = keys;
+        long[] oa = a, ob = b;
+        boolean[] u = used;
+        keys = new int[k.length * 2];
+        a = new long[k.length * 2];
+        b = new long[k.length * 2];
+        used = new boolean[k.length * 2];
+        for (int i = 0; i < k.length; i++) {
+            if (!u[i]) continue;
+            int j = slot(k[i]);
+            used[j] = true;
+            keys[j] = k[i];
+            a[j] = oa[i];
+            b[j] = ob[i];
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.net.URI;
+import java.net.http.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Local load generator for the HTTP storefront (java Main --server).
+ * Each simulated shopper loops over browse, add to cart, view cart and checkout
+ * with its own session; per-endpoint latencies are reported as p50/p99.
+ *
+ * Run: java LoadGenerator [baseUrl] [shoppers] [iterations per shopper]
+ */
+public class LoadGenerator {
+    private static final String[] STEPS = { "GET /products", "POST /cart/add", "GET /cart", "POST /checkout" };
+
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "http://localhost:8080";
+        int shoppers = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newFixedThreadPool(Math.max(4, shoppers / 4)))
+                .build();
+        long[][][] samples = new long[STEPS.length][shoppers][iterations];
+        int[] errors = new int[STEPS.length];
+
+        ExecutorService pool = Executors.newFixedThreadPool(shoppers);
+        List<Future<?>> running = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int s = 0; s < shoppers; s++) {
+            final int shopper = s;
+            running.add(pool.submit(() -> {
+                String session = "load-" + shopper + "-" + UUID.randomUUID();
+                Random rnd = new Random(shopper);
+                for (int i = 0; i < iterations; i++) {
+                    String[] paths = {
+                            "/products",
+                            "/cart/add?productId=" + (1 + rnd.nextInt(5)) + "&qty=1",
+                            "/cart",
+                            "/checkout"
+                    };
+                    for (int step = 0; step < STEPS.length; step++) {
+                        HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(base + paths[step]))
+                                .header("X-Session-Id", session);
+                        if (STEPS[step].startsWith("POST")) req.POST(HttpRequest.BodyPublishers.noBody());
+                        long t0 = System.nanoTime();
+                        int status;
+                        try {
+                            status = client.send(req.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+                        } catch (Exception e) {
+                            status = -1;
+                        }
+                        samples[step][shopper][i] = System.nanoTime() - t0;
+                        // 400/409 (empty cart, out of stock) are expected business answers, not failures
+                        if (status != 200 && status != 400 && status != 409) {
+                            synchronized (errors) { errors[step]++; }
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : running) f.get();
+        double seconds = (System.nanoTime() - started) / 1e9;
+        pool.shutdown();
+
+        long requests = (long) STEPS.length * shoppers * iterations;
+        System.out.printf("%d shoppers x %d iterations: %d requests in %.2fs (%.0f req/s)%n",
+                shoppers, iterations, requests, seconds, requests / seconds);
+        System.out.printf("%-16s %10s %10s %10s %8s%n", "endpoint", "p50 (ms)", "p99 (ms)", "max (ms)", "errors");
+        for (int step = 0; step < STEPS.length; step++) {
+            long[] all = new long[shoppers * iterations];
+            int k = 0;
+            for (long[] perShopper : samples[step]) for (long v : perShopper) all[k++] = v;
+            Arrays.sort(all);
+            System.out.printf("%-16s %10.3f %10.3f %10.3f %8d%n", STEPS[step],
+                    percentile(all, 50) / 1e6, percentile(all, 99) / 1e6, all[all.length - 1] / 1e6, errors[step]);
+        }
+        System.exit(0);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+}
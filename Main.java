@@ -1,25 +1,59 @@
 import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
  * Mini E-commerce Console App
- * - Menu: browse products, add to cart, view cart, remove item, checkout, view orders, exit
- * - Products are initialized in memory
- * - Checkout writes a simple order record to "orders.txt"
+ * - Menu: browse products, add to cart, view cart, remove item, checkout, view orders,
+ *   search, stats, sales report (see OrderAnalytics.java), sales today (see
+ *   SalesAggregates.java), exit
+ * - Products are initialized in memory and indexed by id (see ProductCatalog.java),
+ *   or bulk-loaded from a CSV/TSV file with --catalog (see CatalogLoader.java)
+ * - Checkout writes a simple order record to "orders.txt", or with -Dorders.async=on
+ *   queues it for a background writer (see AsyncOrderWriter.java); once the file is big
+ *   enough it is rolled into "orders.txt.segments/", and old segments are archived
+ *   (see OrderSegments.java)
+ * - Stock is kept in "inventory.dat" so it survives restarts (see InventoryTable.java),
+ *   and rebuilt from the recorded orders when that file is new (see StockRecovery.java);
+ *   a background checkpoint keeps that replay short (see Checkpointer.java)
  *
- * Save this file as Main.java and run:
- * javac Main.java
- * java Main
+ * Keep the .java files together in one directory and run:
+ * javac *.java
+ * java Main [--catalog products.csv]
  */
 
 class Product {
+    // CAS access to stock so concurrent checkouts can never oversell
+    private static final VarHandle STOCK;
+    static {
+        try {
+            STOCK = MethodHandles.lookup().findVarHandle(Product.class, "stock", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final int id;
     private final String name;
     private final String desc;
-    private double price;
-    private int stock;
+    // Bumped on every price change anywhere; lets carts cache totals and notice repricing
+    private static final AtomicLong priceEpoch = new AtomicLong();
 
-    public Product(int id, String name, String desc, double price, int stock) {
+    private volatile long price; // minor units, see Money
+    private volatile int stock;
+    private volatile InventoryTable inventory; // when set, stock is kept there instead
+
+    public Product(int id, String name, String desc, long price, int stock) {
         this.id = id;
         this.name = name;
         this.desc = desc;
@@ -30,27 +64,64 @@ class Product {
     public int getId() { return id; }
     public String getName() { return name; }
     public String getDesc() { return desc; }
-    public double getPrice() { return price; }
-    public int getStock() { return stock; }
+    public long getPrice() { return price; }
+    public int getStock() {
+        InventoryTable t = inventory;
+        return t != null ? t.stock(id) : stock;
+    }
+
+    public void setPrice(long price) {
+        this.price = price;
+        priceEpoch.incrementAndGet();
+    }
+
+    static long priceEpoch() { return priceEpoch.get(); }
+    public void setStock(int stock) {
+        InventoryTable t = inventory;
+        if (t != null) t.setStock(id, stock);
+        else this.stock = stock;
+    }
 
-    public void setPrice(double price) { this.price = price; }
-    public void setStock(int stock) { this.stock = stock; }
+    /**
+     * Keeps this product's stock in table from now on. A level the table already holds
+     * (from an earlier run) wins over the one this product was created with.
+     */
+    public void bindInventory(InventoryTable table) {
+        this.stock = table.initStock(id, stock);
+        this.inventory = table;
+    }
+
+    /** Atomically takes qty units out of stock; returns false (and changes nothing) if fewer are left. */
+    public boolean tryReserve(int qty) {
+        if (qty <= 0) throw new IllegalArgumentException("qty must be >= 1");
+        InventoryTable t = inventory;
+        if (t != null) return t.tryReserve(id, qty);
+        int current;
+        do {
+            current = stock;
+            if (qty > current) return false;
+        } while (!STOCK.compareAndSet(this, current, current - qty));
+        return true;
+    }
+
+    /** Gives back units taken by tryReserve. */
+    public void release(int qty) {
+        InventoryTable t = inventory;
+        if (t != null) t.release(id, qty);
+        else STOCK.getAndAdd(this, qty);
+    }
 
     public boolean reduceStock(int qty) {
-        if (qty <= stock) {
-            stock -= qty;
-            return true;
-        }
-        return false;
+        return tryReserve(qty);
     }
 
     public void increaseStock(int qty) {
-        stock += qty;
+        release(qty);
     }
 
     @Override
     public String toString() {
-        return String.format("[%d] %s - ₹%.2f (stock: %d) - %s", id, name, price, stock, desc);
+        return ConsoleRenderer.appendProduct(new StringBuilder(64), this).toString();
     }
 }
 
@@ -66,63 +137,121 @@ class CartItem {
     public Product getProduct() { return product; }
     public int getQty() { return qty; }
     public void setQty(int qty) { this.qty = qty; }
-    public double getItemTotal() { return product.getPrice() * qty; }
+    public long getItemTotal() { return Money.times(product.getPrice(), qty); }
 
     @Override
     public String toString() {
-        return String.format("%s x %d = ₹%.2f", product.getName(), qty, getItemTotal());
+        return ConsoleRenderer.appendCartItem(new StringBuilder(48), this).toString();
     }
 }
 
+/*
+ * Shopping cart. The total is kept up to date by add/remove/clear instead of being
+ * recomputed on every total() call; it is only rebuilt from the lines when some
+ * product price has changed since it was last computed (see Product.priceEpoch).
+ */
 class Cart {
+    // Cart calls take tens of nanoseconds, about what two clock reads cost, so they are
+    // counted rather than timed; only a full reprice (O(lines)) is timed
+    private static final Metrics.Counter ADD = Metrics.counter("cart_add_calls");
+    private static final Metrics.Counter REMOVE = Metrics.counter("cart_remove_calls");
+    private static final Metrics.Counter CLEAR = Metrics.counter("cart_clear_calls");
+    private static final Metrics.Counter TOTAL = Metrics.counter("cart_total_calls");
+    private static final Metrics.Counter GET_ITEMS = Metrics.counter("cart_get_items_calls");
+    private static final Metrics.Counter IS_EMPTY = Metrics.counter("cart_is_empty_calls");
+    private static final Metrics.Histogram REPRICE = Metrics.histogram("cart_reprice");
+
     private final Map<Integer, CartItem> items = new LinkedHashMap<>();
+    private long total;
+    private long pricedAt = Product.priceEpoch();
 
     public void add(Product p, int qty) {
+        ADD.increment();
+        reprice();
         CartItem ci = items.get(p.getId());
         if (ci == null) items.put(p.getId(), new CartItem(p, qty));
         else ci.setQty(ci.getQty() + qty);
+        total = Money.plus(total, Money.times(p.getPrice(), qty));
     }
 
     public void remove(int productId) {
-        items.remove(productId);
+        REMOVE.increment();
+        reprice();
+        CartItem ci = items.remove(productId);
+        if (ci != null) total = Money.minus(total, ci.getItemTotal());
     }
 
     public Collection<CartItem> getItems() {
-        return items.values();
+        GET_ITEMS.increment();
+        return Collections.unmodifiableCollection(items.values());
     }
 
     public boolean isEmpty() {
+        IS_EMPTY.increment();
         return items.isEmpty();
     }
 
     public void clear() {
+        CLEAR.increment();
         items.clear();
+        total = 0;
+        pricedAt = Product.priceEpoch();
     }
 
-    public double total() {
-        double t = 0;
-        for (CartItem ci : items.values()) t += ci.getItemTotal();
-        return t;
+    public long total() {
+        TOTAL.increment();
+        reprice();
+        return total;
+    }
+
+    // Rebuilds the cached total if any price changed since it was computed
+    private void reprice() {
+        long epoch = Product.priceEpoch();
+        if (epoch == pricedAt) return;
+        long t0 = Metrics.now();
+        long t = 0;
+        for (CartItem ci : items.values()) t = Money.plus(t, ci.getItemTotal());
+        total = t;
+        pricedAt = epoch;
+        REPRICE.recordSince(t0);
     }
 }
 
 class Order {
     private final String id;
     private final List<CartItem> items;
-    private final double total;
+    private final long total;
     private final Date orderedAt;
+    // Completes with the order's offset in the orders file once it has been written
+    private final CompletableFuture<Long> persisted = new CompletableFuture<>();
+
+    private static volatile OrderIdGenerator idGenerator = new SnowflakeIdGenerator(0);
+
+    static void setIdGenerator(OrderIdGenerator generator) {
+        idGenerator = Objects.requireNonNull(generator);
+    }
 
-    public Order(List<CartItem> items, double total) {
-        this.id = "ORD" + System.currentTimeMillis();
+    public Order(List<CartItem> items, long total) {
+        this(idGenerator.next(), items, total);
+    }
+
+    Order(String id, List<CartItem> items, long total) {
+        this(id, new Date(), items, total);
+    }
+
+    // Used when reading orders back from the orders file
+    Order(String id, Date orderedAt, List<CartItem> items, long total) {
+        this.id = id;
         this.items = new ArrayList<>(items);
         this.total = total;
-        this.orderedAt = new Date();
+        this.orderedAt = orderedAt;
     }
 
     public String getId() { return id; }
     public List<CartItem> getItems() { return items; }
-    public double getTotal() { return total; }
+    public long getTotal() { return total; }
     public Date getOrderedAt() { return orderedAt; }
+    CompletableFuture<Long> persisted() { return persisted; }
 
     @Override
     public String toString() {
@@ -130,27 +259,83 @@ class Order {
         sb.append("OrderId: ").append(id).append("\n");
         sb.append("Date: ").append(orderedAt).append("\n");
         for (CartItem ci : items) {
-            sb.append("  ").append(ci.toString()).append("\n");
+            ConsoleRenderer.appendCartItem(sb.append("  "), ci).append("\n");
         }
-        sb.append(String.format("Total: ₹%.2f\n", total));
+        sb.append("Total: ");
+        Money.appendTo(sb, total).append("\n");
         return sb.toString();
     }
 }
 
 public class Main {
     private static final Scanner sc = new Scanner(System.in);
-    private static final List<Product> products = new ArrayList<>();
+    private static final ProductCatalog catalog = new ProductCatalog();
+    private static final CheckoutEngine checkoutEngine = new CheckoutEngine(catalog);
+    private static SearchIndex searchIndex; // built once the catalog is loaded
+    private static final ConsoleRenderer renderer = new ConsoleRenderer(System.out);
     private static final Cart cart = new Cart();
-    private static final String ORDERS_FILE = "orders.txt";
+    private static OrderCodec.Format ordersFormat = OrderCodec.Format.TEXT; // see configureOrdersFormat
+    private static String ordersFile = ordersFormat.defaultFile;
+    private static final int PAGE_SIZE = 20;
+    private static final int REPORT_DAYS = 14;
+    private static final int REPORT_TOP = 5;
+    // Indexed by menu option; time spent in each option, including waiting for input
+    private static final Metrics.Histogram[] MENU_TIMES = {
+            Metrics.histogram("menu_exit"), Metrics.histogram("menu_browse"),
+            Metrics.histogram("menu_add_to_cart"), Metrics.histogram("menu_view_cart"),
+            Metrics.histogram("menu_remove_from_cart"), Metrics.histogram("menu_checkout"),
+            Metrics.histogram("menu_view_orders"), Metrics.histogram("menu_find_orders"),
+            Metrics.histogram("menu_search"), Metrics.histogram("menu_stats"),
+            Metrics.histogram("menu_sales_report"), Metrics.histogram("menu_sales_today"),
+    };
+    private static final Metrics.Histogram CHECKOUT = Metrics.histogram("checkout");
+    private static final Metrics.Counter ORDERS_PLACED = Metrics.counter("orders_placed");
+    private static final Metrics.Counter OUT_OF_STOCK = Metrics.counter("checkout_out_of_stock");
+    private static final Metrics.Histogram PERSIST_ORDER = Metrics.histogram("persist_order");
+    private static final Metrics.Counter PERSIST_FAILURES = Metrics.counter("persist_order_failures");
+    private static final Metrics.Histogram FIND_PRODUCT = Metrics.histogram("find_product_by_id");
+    private static final long SEGMENT_CHECK_SECONDS = 10;
+    private static OrderJournal journal;
+    private static OrderStore orderStore;
+    private static OrderSegments orderLog;
+    private static AsyncOrderWriter orderWriter;
+    private static InventoryTable inventory;
+    private static Checkpointer checkpointer;
+    // Running sales totals; replaced by the recovered ones once the orders file is open
+    private static SalesAggregates sales = new SalesAggregates();
+    // Orders the order writer failed to save after checkout returned, by id, with the reason
+    private static final ConcurrentHashMap<String, String> unsavedOrders = new ConcurrentHashMap<>();
+    private static final int MAX_UNSAVED = 1000;
 
     public static void main(String[] args) {
-        seedProducts();
+        if (!configureOrdersFormat()) return;
+        if (args.length >= 2 && args[0].equals("--catalog")) {
+            if (!loadCatalog(args[1])) return;
+            args = Arrays.copyOfRange(args, 2, args.length);
+        } else {
+            seedProducts();
+        }
+        searchIndex = new SearchIndex(catalog);
+        if (args.length == 3 && args[0].equals("--convert-orders")) {
+            convertOrders(args[1], args[2]);
+            return;
+        }
+        configureOrderIds();
+        if (!openDataFiles()) {
+            closeDataFiles();
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("--server")) {
+            runServer(args.length >= 2 ? args[1] : "8080");
+            return;
+        }
         System.out.println("=== Welcome to Mini E-Commerce ===");
 
         boolean running = true;
         while (running) {
             printMainMenu();
             int choice = readIntSafe("Choose option: ");
+            long t0 = Metrics.now();
             switch (choice) {
                 case 1: browseProducts(); break;
                 case 2: addToCart(); break;
@@ -158,6 +343,11 @@ public class Main {
                 case 4: removeFromCart(); break;
                 case 5: checkout(); break;
                 case 6: viewOrdersFromFile(); break;
+                case 7: findOrders(); break;
+                case 8: searchProducts(); break;
+                case 9: showStats(); break;
+                case 10: showSalesReport(); break;
+                case 11: showSalesToday(); break;
                 case 0:
                     running = false;
                     System.out.println("Thank you for visiting. Goodbye!");
@@ -165,16 +355,221 @@ public class Main {
                 default:
                     System.out.println("Invalid option. Try again.");
             }
+            if (choice >= 0 && choice < MENU_TIMES.length) MENU_TIMES[choice].recordSince(t0);
         }
+        closeDataFiles();
         sc.close();
     }
 
+    // -Dorders.format=text|binary picks orders.txt or the compact orders.bin (see OrderCodec)
+    private static boolean configureOrdersFormat() {
+        String format = System.getProperty("orders.format", "text");
+        try {
+            ordersFormat = OrderCodec.Format.parse(format);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown orders.format '" + format + "', use -Dorders.format=text or -Dorders.format=binary");
+            return false;
+        }
+        ordersFile = ordersFormat.defaultFile;
+        return true;
+    }
+
+    // Node id keeps order ids unique when several instances share one orders file: -Dorders.node=0..1023
+    private static void configureOrderIds() {
+        try {
+            int node = Integer.parseInt(System.getProperty("orders.node", "0").trim());
+            Order.setIdGenerator(new SnowflakeIdGenerator(node));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid orders.node, using 0: " + e.getMessage());
+        }
+    }
+
+    // java Main --server [port]: serves the shop over HTTP until the process is stopped
+    private static void runServer(String port) {
+        try {
+            Storefront server = Storefront.start(Integer.parseInt(port.trim()), catalog, searchIndex, orderStore, orderLog,
+                    orderWriter, sales);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                closeDataFiles();
+            }));
+            System.out.println("Mini E-Commerce storefront listening on http://localhost:" + server.port());
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Unable to start server: " + e.getMessage());
+            closeDataFiles();
+        }
+    }
+
+    // java Main --convert-orders orders.txt orders.bin
+    private static void convertOrders(String textFile, String binaryFile) {
+        try {
+            long n = OrderCodec.convertTextToBinary(new File(textFile).toPath(), new File(binaryFile).toPath(), catalog);
+            System.out.println("Converted " + n + " orders from " + textFile + " to " + binaryFile);
+        } catch (IOException e) {
+            System.out.println("Conversion failed: " + e.getMessage());
+        }
+    }
+
+    // fsync policy comes from -Dorders.fsync=always|os|<millis>ms (default: os)
+    // False if the shop must not start (see recoverStock)
+    private static boolean openDataFiles() {
+        openOrderLog();
+        try {
+            OrderJournal.FsyncPolicy policy = OrderJournal.FsyncPolicy.parse(System.getProperty("orders.fsync", "os"));
+            journal = OrderJournal.open(new File(ordersFile).toPath(), ordersFormat, policy);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Unable to open orders file: " + e.getMessage());
+        }
+        try {
+            orderStore = OrderStore.open(new File(ordersFile).toPath(), ordersFormat);
+        } catch (IOException e) {
+            System.out.println("Unable to index orders file: " + e.getMessage());
+        }
+        startOrderWriter();
+        if (!openInventory()) return false;
+        recoverSales();
+        startCheckpoints();
+        startOrderLog();
+        return true;
+    }
+
+    // The orders file is rolled into a new segment once it passes -Dorders.segment.mb (default
+    // 64, 0 never); segments with no orders in the last -Dorders.retention.days (default 30,
+    // 0 never) are compressed into archives. Opened first: it may finish an interrupted roll.
+    private static void openOrderLog() {
+        File f = new File(ordersFile);
+        try {
+            long mb = Long.parseLong(System.getProperty("orders.segment.mb", "64").trim());
+            long days = Long.parseLong(System.getProperty("orders.retention.days", "30").trim());
+            if (mb <= 0 && !OrderSegments.dirFor(f.toPath()).toFile().exists()) return;
+            orderLog = OrderSegments.open(f.toPath(), ordersFormat, mb > 0 ? mb << 20 : Long.MAX_VALUE,
+                    TimeUnit.DAYS.toMillis(Math.max(days, 0)));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Unable to open order segments, keeping one orders file: " + e.getMessage());
+        }
+    }
+
+    // Rolling needs checkpoints: the snapshots must cover the file before it is sealed
+    private static void startOrderLog() {
+        if (orderLog == null || journal == null) return;
+        if (checkpointer == null) {
+            System.out.println("Order segments will not be rolled: checkpoints are not running");
+            return;
+        }
+        orderLog.start(journal, checkpointer, orderStore, TimeUnit.SECONDS.toMillis(SEGMENT_CHECK_SECONDS));
+    }
+
+    // -Dorders.async=on writes orders from a background thread (see AsyncOrderWriter);
+    // -Dorders.async.queue bounds how many may wait to be written (default 4096)
+    private static void startOrderWriter() {
+        if (journal == null || !"on".equalsIgnoreCase(System.getProperty("orders.async", "off").trim())) return;
+        try {
+            int queue = Integer.parseInt(System.getProperty("orders.async.queue", "4096").trim());
+            orderWriter = new AsyncOrderWriter(journal, ordersFormat, orderStore, queue, 256);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unable to start order writer, saving orders synchronously: " + e.getMessage());
+        }
+    }
+
+    // Stock lives in -Dinventory.file (default inventory.dat; "none" keeps it in memory only).
+    // A new or missing table gets its stock rebuilt from the orders already recorded.
+    private static boolean openInventory() {
+        String inventoryFile = System.getProperty("inventory.file", "inventory.dat");
+        if (!inventoryFile.equals("none")) {
+            try {
+                inventory = InventoryTable.open(new File(inventoryFile).toPath());
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Unable to open inventory file, stock will not be kept: " + e.getMessage());
+            }
+        }
+        // An existing table already holds current stock: bind first so recovery snapshots its
+        // levels; a new one is seeded from the recovered stock instead
+        boolean current = inventory != null && !inventory.isNew();
+        if (current) bindInventory();
+        if (!recoverStock(!current)) return false;
+        if (inventory != null && !current) bindInventory();
+        return true;
+    }
+
+    private static void bindInventory() {
+        for (Product p : catalog.all()) p.bindInventory(inventory);
+    }
+
+    // Loads the sales totals snapshot and adds the orders recorded since (see SalesAggregates)
+    private static void recoverSales() {
+        if (journal == null) return;
+        try {
+            sales = SalesAggregates.recover(new File(ordersFile).toPath(), ordersFormat, catalog);
+        } catch (IOException e) {
+            System.out.println("Sales totals recovery failed, counting from now: " + e.getMessage());
+        }
+    }
+
+    // Snapshot stock in the background every -Dcheckpoint.seconds (default 60, 0 = only on exit)
+    private static void startCheckpoints() {
+        if (journal == null) return;
+        try {
+            long seconds = Long.parseLong(System.getProperty("checkpoint.seconds", "60").trim());
+            long interval = seconds > 0 ? TimeUnit.SECONDS.toMillis(seconds) : Long.MAX_VALUE;
+            checkpointer = new Checkpointer(new File(ordersFile).toPath(), ordersFormat, catalog, interval);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Unable to start checkpoints: " + e.getMessage());
+        }
+    }
+
+    // Replays orders recorded since the last stock snapshot (see StockRecovery); with apply
+    // false the products keep their stock and only the snapshot is brought up to date
+    // A failed recovery stops startup: selling from stock that misses recorded orders would oversell
+    private static boolean recoverStock(boolean apply) {
+        if (journal == null) return true;
+        try {
+            StockRecovery.Result r = StockRecovery.recover(new File(ordersFile).toPath(), ordersFormat, catalog, apply);
+            if (r.orders > 0) System.out.println("Stock recovery: " + r);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Stock recovery failed, not starting: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // In this order (queued orders are written before the journal closes, the last checkpoint
+    // comes after it); each is closed on its own so one failure does not leave the rest open
+    private static void closeDataFiles() {
+        close("order segments", orderLog);
+        close("order writer", orderWriter);
+        close("orders file", journal);
+        close("checkpoints", checkpointer);
+        close("order index", orderStore);
+        close("inventory file", inventory);
+    }
+
+    private static void close(String what, Closeable resource) {
+        if (resource == null) return;
+        try {
+            resource.close();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Failed to close " + what + ": " + e.getMessage());
+        }
+    }
+
+    // java Main --catalog products.csv [...]: replaces the built-in products with the file's
+    private static boolean loadCatalog(String file) {
+        try {
+            CatalogLoader.Result r = CatalogLoader.load(new File(file).toPath(), catalog);
+            System.out.println("Loaded " + r + " from " + file);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Unable to load catalog: " + e.getMessage());
+            return false;
+        }
+    }
+
     private static void seedProducts() {
-        products.add(new Product(1, "Wireless Mouse", "Ergonomic mouse", 499.0, 10));
-        products.add(new Product(2, "USB-C Cable", "1m fast charging cable", 199.0, 25));
-        products.add(new Product(3, "Bluetooth Headset", "Noise-cancelling", 1599.0, 8));
-        products.add(new Product(4, "Notebook", "200 pages ruled", 99.0, 50));
-        products.add(new Product(5, "Water Bottle", "500 ml stainless", 349.0, 20));
+        catalog.add(new Product(1, "Wireless Mouse", "Ergonomic mouse", Money.ofMajor(499), 10));
+        catalog.add(new Product(2, "USB-C Cable", "1m fast charging cable", Money.ofMajor(199), 25));
+        catalog.add(new Product(3, "Bluetooth Headset", "Noise-cancelling", Money.ofMajor(1599), 8));
+        catalog.add(new Product(4, "Notebook", "200 pages ruled", Money.ofMajor(99), 50));
+        catalog.add(new Product(5, "Water Bottle", "500 ml stainless", Money.ofMajor(349), 20));
     }
 
     private static void printMainMenu() {
@@ -184,19 +579,52 @@ public class Main {
         System.out.println("3. View cart");
         System.out.println("4. Remove item from cart");
         System.out.println("5. Checkout");
-        System.out.println("6. View past orders (orders.txt)");
+        System.out.println("6. View past orders (" + ordersFile + ")");
+        System.out.println("7. Find past orders (by id, latest, date range)");
+        System.out.println("8. Search products");
+        System.out.println("9. Stats");
+        System.out.println("10. Sales report (from " + ordersFile + ")");
+        System.out.println("11. Sales today (running totals)");
         System.out.println("0. Exit");
     }
 
     private static void browseProducts() {
-        System.out.println("\nAvailable Products:");
-        for (Product p : products) {
-            System.out.println(p);
+        renderer.line("\nAvailable Products:");
+        int cursor = printPage(0);
+        while (cursor >= 0) {
+            String more = readLineSafe("Enter for more, q to stop: ");
+            if (more.equalsIgnoreCase("q")) break;
+            cursor = printPage(cursor);
         }
     }
 
+    // Prints one page of the catalog; returns the cursor of the next page, or -1 after the last
+    private static int printPage(int cursor) {
+        ProductCatalog.Page page = catalog.page(cursor, PAGE_SIZE);
+        for (Product p : page.items) {
+            renderer.product(p);
+        }
+        renderer.flush();
+        return page.nextCursor;
+    }
+
+    private static void searchProducts() {
+        String query = readLineSafe("Search for: ");
+        List<Product> found = searchIndex.search(query, PAGE_SIZE);
+        if (found.isEmpty()) {
+            System.out.println("No products match \"" + query + "\".");
+            return;
+        }
+        renderer.line("\nSearch results:");
+        for (Product p : found) {
+            renderer.product(p);
+        }
+        renderer.flush();
+    }
+
     private static void addToCart() {
-        browseProducts();
+        renderer.line("\nAvailable Products:");
+        if (printPage(0) >= 0) System.out.println("(more products under option 1)");
         int pid = readIntSafe("Enter product id to add: ");
         Product p = findProductById(pid);
         if (p == null) {
@@ -225,9 +653,9 @@ public class Main {
         }
         int idx = 1;
         for (CartItem ci : cart.getItems()) {
-            System.out.println(idx++ + ". " + ci);
+            renderer.cartLine(idx++, ci);
         }
-        System.out.println(String.format("Cart Total: ₹%.2f", cart.total()));
+        renderer.money("Cart Total: ", cart.total()).flush();
     }
 
     private static void removeFromCart() {
@@ -261,45 +689,212 @@ public class Main {
             return;
         }
 
-        // Check stock again and reduce stock
-        for (CartItem ci : cart.getItems()) {
-            Product p = findProductById(ci.getProduct().getId());
-            if (p == null || ci.getQty() > p.getStock()) {
-                System.out.println("Stock changed. Cannot complete order for " + ci.getProduct().getName());
-                return;
+        try {
+            Order order = placeOrder(cart);
+            System.out.println("Order placed successfully! Order ID: " + order.getId()
+                    + (order.persisted().isDone() ? "" : " (saving in the background)"));
+        } catch (OutOfStockException e) {
+            System.out.println("Stock changed. Cannot complete order for " + e.getItem().getProduct().getName());
+        } catch (IOException e) {
+            System.out.println("Failed to save order, your cart is unchanged: " + e.getMessage());
+        }
+    }
+
+    // Reserves stock for every line (all-or-nothing), records the order and empties the cart.
+    // If the order can't be written the stock is given back and the cart kept (IOException).
+    // Shared by the console and the HTTP storefront.
+    static Order placeOrder(Cart cart) throws OutOfStockException, IOException {
+        long t0 = Metrics.now();
+        try {
+            CartItem failed = checkoutEngine.reserve(cart.getItems());
+            if (failed != null) {
+                OUT_OF_STOCK.increment();
+                throw new OutOfStockException(failed);
             }
+
+            Order order = new Order(new ArrayList<>(cart.getItems()), cart.total());
+            try {
+                persistOrder(order);
+            } catch (IOException e) {
+                checkoutEngine.release(cart.getItems());
+                throw e;
+            }
+            // It counts as a sale once it is in the orders file: straight away when saved
+            // synchronously, on the order writer's thread otherwise
+            order.persisted().thenAccept(offset -> sales.record(order));
+            cart.clear();
+            ORDERS_PLACED.increment();
+            return order;
+        } finally {
+            CHECKOUT.recordSince(t0);
         }
+    }
 
-        // Reduce stock and create order
-        for (CartItem ci : cart.getItems()) {
-            Product p = findProductById(ci.getProduct().getId());
-            p.reduceStock(ci.getQty());
+    // Writes the order to the journal, or hands it to the order writer when orders are saved
+    // asynchronously; either way order.persisted() tells when it is in the file. Throws if a
+    // synchronous write fails or the order writer refuses the order; an asynchronous write
+    // that fails later gives the stock back and is reported by saveFailure.
+    private static void persistOrder(Order order) throws IOException {
+        long t0 = Metrics.now();
+        if (journal == null) {
+            PERSIST_FAILURES.increment();
+            IOException e = new IOException("orders file is not open");
+            order.persisted().completeExceptionally(e);
+            throw e;
+        }
+        // persist_order is the time checkout spends saving: the write itself when synchronous,
+        // the hand-over to the order writer when not
+        if (orderWriter != null) {
+            CompletableFuture<Long> written = orderWriter.submit(order);
+            PERSIST_ORDER.recordSince(t0);
+            if (written.isCompletedExceptionally()) {
+                // Refused outright (the writer is closed): fail checkout as a synchronous write would
+                PERSIST_FAILURES.increment();
+                Throwable e = written.handle((offset, failure) -> failure).join();
+                throw e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            written.whenComplete((offset, e) -> {
+                if (e != null) orderNotSaved(order, e);
+            });
+            return;
+        }
+        try {
+            journal.append(ordersFormat.encode(order), offset -> {
+                order.persisted().complete(offset);
+                if (orderStore != null) {
+                    orderStore.add(OrderIdGenerator.parse(order.getId()), order.getOrderedAt().getTime(), offset);
+                }
+            });
+        } catch (IOException e) {
+            PERSIST_FAILURES.increment();
+            order.persisted().completeExceptionally(e);
+            throw e;
+        } finally {
+            PERSIST_ORDER.recordSince(t0);
         }
+    }
+
+    // Checkout has already returned: give the stock back and remember why, for saveFailure
+    private static void orderNotSaved(Order order, Throwable e) {
+        checkoutEngine.release(order.getItems());
+        PERSIST_FAILURES.increment();
+        if (unsavedOrders.size() >= MAX_UNSAVED) {
+            Iterator<String> it = unsavedOrders.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        unsavedOrders.put(order.getId(), String.valueOf(e.getMessage()));
+        System.out.println("Failed to save order " + order.getId() + ", its stock was released: " + e.getMessage());
+    }
 
-        Order order = new Order(new ArrayList<>(cart.getItems()), cart.total());
-        persistOrder(order);
-        System.out.println("Order placed successfully! Order ID: " + order.getId());
-        cart.clear();
+    /** Why an order placed at checkout could not be saved afterwards, or null if it was not one of those. */
+    static String saveFailure(String orderId) {
+        return unsavedOrders.get(orderId);
     }
 
-    private static void persistOrder(Order order) {
-        try (FileWriter fw = new FileWriter(ORDERS_FILE, true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-            out.println("----");
-            out.println(order.toString());
+    private static void showStats() {
+        renderer.line("\nMetrics (latencies in microseconds):");
+        renderer.line(Metrics.render().trim());
+        renderer.flush();
+    }
+
+    // Revenue per day (the last REPORT_DAYS), top products and basket size over every recorded order
+    private static void showSalesReport() {
+        if (orderWriter != null) orderWriter.flush();
+        File f = new File(ordersFile);
+        if (!f.exists()) {
+            System.out.println("No orders found.");
+            return;
+        }
+        OrderAnalytics.Report r;
+        List<Path> files = new ArrayList<>();
+        if (orderLog != null) files.addAll(orderLog.sealedFiles());
+        files.add(f.toPath());
+        try {
+            r = OrderAnalytics.run(files, ordersFormat, catalog, Runtime.getRuntime().availableProcessors());
         } catch (IOException e) {
-            System.out.println("Failed to save order: " + e.getMessage());
+            System.out.println("Unable to read orders file: " + e.getMessage());
+            return;
+        }
+        renderer.line("\nSales report: " + r);
+        int archived = orderLog != null ? orderLog.archivedCount() : 0;
+        if (archived > 0) renderer.line("(" + archived + " archived segments not included; see option 11 for all-time totals)");
+        if (r.orders == 0) {
+            renderer.flush();
+            return;
+        }
+        renderer.money("Revenue: ", r.revenue);
+        renderer.money("Average order value: ", r.averageOrderValue());
+        renderer.line(String.format(Locale.ROOT, "Average basket size: %.2f items", r.averageBasketSize()));
+        if (r.unmatched > 0) renderer.line(r.unmatched + " order lines are for products no longer in the catalog");
+
+        long[] days = r.days();
+        renderer.line("\nRevenue per day" + (days.length > REPORT_DAYS ? " (last " + REPORT_DAYS + " of " + days.length + " days)" : "") + ":");
+        for (int i = Math.max(0, days.length - REPORT_DAYS); i < days.length; i++) {
+            renderer.money(LocalDate.ofEpochDay(days[i]) + "  " + r.ordersOn(days[i]) + " orders  ", r.revenueOn(days[i]));
         }
+        renderer.line("\nTop products by units:");
+        for (int id : r.topByUnits(REPORT_TOP)) renderer.line("  " + productName(id) + " - " + r.unitsOf(id) + " sold");
+        renderer.line("\nTop products by revenue:");
+        for (int id : r.topByRevenue(REPORT_TOP)) renderer.money("  " + productName(id) + " - ", r.revenueOf(id));
+        renderer.flush();
+    }
+
+    // Straight from the running totals: no orders file is read
+    private static void showSalesToday() {
+        long today = sales.today();
+        renderer.line("\nSales today (" + LocalDate.ofEpochDay(today) + "): " + sales.ordersOn(today) + " orders");
+        renderer.money("Revenue today: ", sales.revenueOn(today));
+        renderer.money("Revenue yesterday: ", sales.revenueOn(today - 1));
+        long week = 0;
+        for (int d = 0; d < 7; d++) week += sales.revenueOn(today - d);
+        renderer.money("Revenue, last 7 days: ", week);
+        renderer.line("All time: " + sales.orders() + " orders, " + sales.units() + " items");
+        renderer.money("Revenue, all time: ", sales.revenue());
+        renderer.flush();
+    }
+
+    private static String productName(int id) {
+        Product p = catalog.findById(id);
+        return p != null ? p.getName() : "#" + id;
     }
 
     private static void viewOrdersFromFile() {
-        System.out.println("\nPast Orders (from " + ORDERS_FILE + "):");
-        File f = new File(ORDERS_FILE);
+        if (orderWriter != null) orderWriter.flush(); // show orders still being saved too
+        System.out.println("\nPast Orders (from " + ordersFile + "):");
+        File f = new File(ordersFile);
         if (!f.exists()) {
             System.out.println("No orders yet.");
             return;
         }
+        if (orderLog != null) {
+            try {
+                orderLog.readSealed(ordersFormat == OrderCodec.Format.BINARY
+                        ? in -> OrderCodec.readBinary(in, order -> {
+                            System.out.println("----");
+                            System.out.println(order);
+                        })
+                        : in -> {
+                            BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                            for (String line; (line = lines.readLine()) != null; ) System.out.println(line);
+                        });
+            } catch (IOException e) {
+                System.out.println("Unable to read order segments: " + e.getMessage());
+            }
+        }
+        if (ordersFormat == OrderCodec.Format.BINARY) {
+            try {
+                OrderCodec.readBinary(f.toPath(), order -> {
+                    System.out.println("----");
+                    System.out.println(order);
+                });
+            } catch (IOException e) {
+                System.out.println("Unable to read orders file: " + e.getMessage());
+            }
+            return;
+        }
         try (Scanner fileScanner = new Scanner(f)) {
             while (fileScanner.hasNextLine()) {
                 System.out.println(fileScanner.nextLine());
@@ -309,9 +904,65 @@ public class Main {
         }
     }
 
-    private static Product findProductById(int id) {
-        for (Product p : products) if (p.getId() == id) return p;
-        return null;
+    private static void findOrders() {
+        if (orderStore == null) {
+            System.out.println("Order index is not available.");
+            return;
+        }
+        if (orderWriter != null) orderWriter.flush();
+        System.out.println("\n1. By order id\n2. Latest orders\n3. By date range");
+        int mode = readIntSafe("Choose: ");
+        try {
+            List<String> found;
+            switch (mode) {
+                case 1: {
+                    String id = readLineSafe("Order id (e.g. ORD123...): ");
+                    String record = orderStore.find(id);
+                    if (record == null && orderLog != null) record = orderLog.find(OrderIdGenerator.parse(id));
+                    found = record == null ? Collections.emptyList() : Collections.singletonList(record);
+                    break;
+                }
+                case 2: {
+                    int n = Math.min(readIntSafe("How many: "), OrderStore.MAX_LAST);
+                    found = orderStore.last(n);
+                    if (found.size() < n && orderLog != null) {
+                        List<String> older = orderLog.last(n - found.size());
+                        older.addAll(found);
+                        found = older;
+                    }
+                    break;
+                }
+                case 3: {
+                    SimpleDateFormat day = new SimpleDateFormat("yyyy-MM-dd");
+                    day.setLenient(false);
+                    long from = day.parse(readLineSafe("From (yyyy-MM-dd): ")).getTime();
+                    long to = day.parse(readLineSafe("To, inclusive (yyyy-MM-dd): ")).getTime() + 24L * 60 * 60 * 1000;
+                    found = new ArrayList<>();
+                    if (orderLog != null) found.addAll(orderLog.between(from, to));
+                    found.addAll(orderStore.between(from, to));
+                    break;
+                }
+                default:
+                    System.out.println("Invalid option.");
+                    return;
+            }
+            if (found.isEmpty()) System.out.println("No matching orders.");
+            for (String record : found) {
+                System.out.println("----");
+                System.out.println(record);
+            }
+        } catch (ParseException e) {
+            System.out.println("Invalid date.");
+        } catch (IOException e) {
+            System.out.println("Unable to read orders file: " + e.getMessage());
+        }
+    }
+
+    static Product findProductById(int id) {
+        long t0 = Metrics.now();
+        Product p = catalog.findById(id);
+        FIND_PRODUCT.recordSince(t0);
+        return p;
     }
 
     private static int readIntSafe(String prompt) {
@@ -0,0 +1,175 @@
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * In-process metrics: named counters and latency histograms, rendered as "name value" lines.
+ * - Counters are LongAdders, which stripe increments across cells under contention
+ * - Histograms use fixed log-linear buckets in the style of HdrHistogram: values below 16ns
+ *   get a bucket each, above that every power of two is split into 16 buckets, so any
+ *   recorded latency is reported within 1/16 (6.25%) of its true value, up to ~73 minutes
+ * - Bucket counts are striped over a few AtomicLongArrays picked by thread id, so threads
+ *   recording into the same histogram rarely touch the same cache line
+ * - Recording is one atomic increment and allocates nothing; mean and max are worked out
+ *   from the buckets when rendering. Metrics are looked up once and kept in static fields
+ *
+ * -Dmetrics=off makes now() return 0 and every record a no-op.
+ */
+final class Metrics {
+    static final boolean ENABLED = !"off".equalsIgnoreCase(System.getProperty("metrics", "on"));
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    /** The counter with this name, created on first use. */
+    static Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    /** The latency histogram (nanoseconds) with this name, created on first use. */
+    static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /** Start time for Histogram.recordSince; 0 when metrics are off. */
+    static long now() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        void increment() {
+            if (ENABLED) value.increment();
+        }
+
+        void add(long n) {
+            if (ENABLED) value.add(n);
+        }
+
+        long sum() { return value.sum(); }
+    }
+
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int MAX_EXP = 42;                     // 2^42 ns, about 73 minutes
+        private static final long MAX_VALUE = (1L << MAX_EXP) - 1;
+        private static final int BUCKETS = bucketOf(MAX_VALUE) + 1;
+        private static final int STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+        private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+        Histogram() {
+            for (int i = 0; i < STRIPES; i++) stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+
+        void recordSince(long startNanos) {
+            if (ENABLED) record(System.nanoTime() - startNanos);
+        }
+
+        void record(long nanos) {
+            if (!ENABLED) return;
+            long v = Math.min(Math.max(nanos, 0), MAX_VALUE);
+            stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)].incrementAndGet(bucketOf(v));
+        }
+
+        /** Counts per bucket, summed over the stripes (recording may continue meanwhile). */
+        long[] snapshot() {
+            long[] counts = new long[BUCKETS];
+            for (AtomicLongArray s : stripes) {
+                for (int b = 0; b < BUCKETS; b++) counts[b] += s.get(b);
+            }
+            return counts;
+        }
+
+        /** Mean of a snapshot, taking each value as the middle of its bucket. */
+        static double mean(long[] counts) {
+            long n = 0;
+            double sum = 0;
+            for (int b = 0; b < counts.length; b++) {
+                if (counts[b] == 0) continue;
+                n += counts[b];
+                sum += counts[b] * ((lowestIn(b) + highestIn(b)) / 2.0);
+            }
+            return n == 0 ? 0 : sum / n;
+        }
+
+        /** Value at quantile q (0..1) of a snapshot: the top of the bucket it falls in. */
+        static long valueAt(long[] counts, double q) {
+            long total = 0;
+            for (long c : counts) total += c;
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) return highestIn(b);
+            }
+            return MAX_VALUE;
+        }
+
+        static int bucketOf(long v) {
+            if (v < SUB) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            return ((exp - SUB_BITS + 1) << SUB_BITS) + (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+        }
+
+        static long lowestIn(int bucket) {
+            if (bucket < SUB) return bucket;
+            int exp = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+            return (long) (SUB + (bucket & (SUB - 1))) << (exp - SUB_BITS);
+        }
+
+        static long highestIn(int bucket) {
+            if (bucket < SUB) return bucket;
+            int exp = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+            return lowestIn(bucket) + (1L << (exp - SUB_BITS)) - 1;
+        }
+
+        private static int stripesFor(int cpus) {
+            return Math.min(Integer.highestOneBit(Math.max(cpus, 1) * 2 - 1), 16);
+        }
+    }
+
+    /**
+     * Every metric as "name value" lines, sorted by name. Histograms expand to
+     * _count, _mean_us, _p50_us, _p90_us, _p99_us, _p999_us and _max_us (just _count
+     * while empty).
+     */
+    static String render() {
+        Map<String, String> lines = new ConcurrentSkipListMap<>();
+        counters.forEach((name, c) -> lines.put(name, name + " " + c.sum()));
+        histograms.forEach((name, h) -> {
+            long[] counts = h.snapshot();
+            long n = 0;
+            for (long c : counts) n += c;
+            StringBuilder sb = new StringBuilder();
+            sb.append(name).append("_count ").append(n).append('\n');
+            if (n == 0) {
+                lines.put(name, name + "_count 0");
+                return;
+            }
+            micros(sb, name, "_mean_us", Histogram.mean(counts));
+            micros(sb, name, "_p50_us", Histogram.valueAt(counts, 0.50));
+            micros(sb, name, "_p90_us", Histogram.valueAt(counts, 0.90));
+            micros(sb, name, "_p99_us", Histogram.valueAt(counts, 0.99));
+            micros(sb, name, "_p999_us", Histogram.valueAt(counts, 0.999));
+            micros(sb, name, "_max_us", Histogram.valueAt(counts, 1.0));
+            sb.setLength(sb.length() - 1);
+            lines.put(name, sb.toString());
+        });
+        StringBuilder out = new StringBuilder();
+        for (String line : lines.values()) out.append(line).append('\n');
+        return out.toString();
+    }
+
+    private static void micros(StringBuilder sb, String name, String suffix, double nanos) {
+        sb.append(name).append(suffix).append(' ').append(String.format(Locale.ROOT, "%.3f", nanos / 1000.0)).append('\n');
+    }
+}
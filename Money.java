@@ -0,0 +1,92 @@
+/*
+ * Money as a plain long count of minor units (paise), so prices and totals add up
+ * exactly without the drift of double or the allocation of BigDecimal.
+ * - Arithmetic is done on the long directly through these static helpers
+ * - Formatting appends digits by hand instead of going through String.format
+ */
+final class Money {
+    static final String SYMBOL = "₹";
+    static final int MINOR_PER_MAJOR = 100;
+
+    private Money() {}
+
+    public static long of(long major, int minor) {
+        if (minor < 0 || minor >= MINOR_PER_MAJOR) throw new IllegalArgumentException("minor units must be 0..99");
+        return Math.addExact(Math.multiplyExact(major, MINOR_PER_MAJOR), major < 0 ? -minor : minor);
+    }
+
+    public static long ofMajor(long major) {
+        return Math.multiplyExact(major, MINOR_PER_MAJOR);
+    }
+
+    public static long plus(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    public static long minus(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    public static long times(long amount, int qty) {
+        return Math.multiplyExact(amount, qty);
+    }
+
+    /**
+     * Parses "998", "998.5", "998.00" or "₹998.00" (an optional leading minus is allowed).
+     * More than two decimals is rejected rather than rounded.
+     */
+    public static long parse(CharSequence s) {
+        int i = 0, end = s.length();
+        while (i < end && Character.isWhitespace(s.charAt(i))) i++;
+        while (end > i && Character.isWhitespace(s.charAt(end - 1))) end--;
+        if (end - i >= SYMBOL.length() && s.subSequence(i, i + SYMBOL.length()).toString().equals(SYMBOL)) {
+            i += SYMBOL.length();
+        }
+        boolean negative = i < end && s.charAt(i) == '-';
+        if (negative) i++;
+        if (i == end) throw new NumberFormatException("Not an amount: " + s);
+
+        long major = 0;
+        int minor = 0, decimals = -1;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (decimals < 0) {
+                    major = Math.addExact(Math.multiplyExact(major, 10), c - '0');
+                } else if (++decimals <= 2) {
+                    minor = minor * 10 + (c - '0');
+                } else {
+                    throw new NumberFormatException("Too many decimals: " + s);
+                }
+            } else {
+                throw new NumberFormatException("Not an amount: " + s);
+            }
+        }
+        if (decimals == 1) minor *= 10;
+        long value = Math.addExact(Math.multiplyExact(major, MINOR_PER_MAJOR), minor);
+        return negative ? -value : value;
+    }
+
+    /** "₹998.00" */
+    public static String format(long amount) {
+        return appendTo(new StringBuilder(16), amount).toString();
+    }
+
+    /** Appends the same text as format() without creating intermediate strings. */
+    public static StringBuilder appendTo(StringBuilder sb, long amount) {
+        if (amount < 0) {
+            sb.append('-');
+            if (amount == Long.MIN_VALUE) {
+                // -Long.MIN_VALUE overflows; its last two digits are 08
+                return sb.append(SYMBOL).append(-(Long.MIN_VALUE / MINOR_PER_MAJOR)).append(".08");
+            }
+            amount = -amount;
+        }
+        long minor = amount % MINOR_PER_MAJOR;
+        sb.append(SYMBOL).append(amount / MINOR_PER_MAJOR).append('.');
+        if (minor < 10) sb.append('0');
+        return sb.append(minor);
+    }
+}
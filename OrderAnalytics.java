@@ -0,0 +1,436 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Sales report over the whole orders journal: revenue per day, top products by units and
+ * by revenue, and average basket size.
+ * - One streaming pass: the journal is cut into chunks at record boundaries (as for
+ *   StockRecovery) and every chunk is parsed straight from the mapped file into primitive
+ *   open-addressing tables (product id -> units, revenue; day -> orders, revenue)
+ * - Chunks are parsed by fork-join tasks that halve the range of chunks until one is
+ *   left; on the way back up each task merges its two halves' tables into one
+ * - The tables grow with the number of products and days, not with the size of the file
+ *
+ * Days are calendar days as the orders were written: the date printed in orders.txt, the
+ * system time zone for orders.bin. Text item lines are matched to products by name (see
+ * StockRecovery); lines for unknown names count towards order totals but not towards any
+ * product. Records cut short by a crash are skipped.
+ */
+final class OrderAnalytics {
+    private static final int UNKNOWN_DAY = Integer.MIN_VALUE;
+
+    private OrderAnalytics() {}
+
+    /** What one pass over the journal found. */
+    static final class Report {
+        final long orders;
+        final long units;
+        final long revenue;
+        final long unmatched; // order lines whose product is not in the catalog
+        final long end;       // journal offset just past the last complete record read
+        final long bytes;
+        final long nanos;
+        private final KeyTotals products;
+        private final KeyTotals days;
+
+        private Report(Stats s, long from, long nanos) {
+            this(s, from, Math.max(s.end, from) - from, nanos);
+        }
+
+        private Report(Stats s, long from, long bytes, long nanos) {
+            this.orders = s.orders;
+            this.units = s.units;
+            this.revenue = s.revenue;
+            this.unmatched = s.unmatched;
+            this.products = s.products;
+            this.days = s.days;
+            this.end = Math.max(s.end, from);
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        /** Average number of units per order. */
+        public double averageBasketSize() {
+            return orders == 0 ? 0 : (double) units / orders;
+        }
+
+        /** Average order value in paise. */
+        public long averageOrderValue() {
+            return orders == 0 ? 0 : revenue / orders;
+        }
+
+        /** Days that have orders, as epoch days in ascending order. */
+        public long[] days() {
+            int[] keys = days.keys();
+            long[] out = new long[keys.length];
+            for (int i = 0; i < keys.length; i++) out[i] = keys[i];
+            return out;
+        }
+
+        public long ordersOn(long epochDay) { return days.a((int) epochDay); }
+        public long revenueOn(long epochDay) { return days.b((int) epochDay); }
+
+        public long unitsOf(int productId) { return products.a(productId); }
+        public long revenueOf(int productId) { return products.b(productId); }
+
+        /** Calls action with (product id, units, revenue) for every product sold. */
+        public void forEachProduct(Entries action) { products.forEach(action); }
+
+        /** Calls action with (epoch day, orders, revenue) for every day with orders. */
+        public void forEachDay(Entries action) { days.forEach(action); }
+
+        /** Ids of the (at most) n products with the most units sold, best first. */
+        public int[] topByUnits(int n) { return products.top(n, false); }
+
+        /** Ids of the (at most) n products with the most revenue, best first. */
+        public int[] topByRevenue(int n) { return products.top(n, true); }
+
+        @Override
+        public String toString() {
+            return String.format("%d orders (%d bytes) in %.3f s", orders, bytes, nanos / 1e9);
+        }
+    }
+
+    interface Entries {
+        void accept(int key, long a, long b);
+    }
+
+    public static Report run(Path ordersFile, OrderCodec.Format format, ProductCatalog catalog) throws IOException {
+        return run(ordersFile, format, catalog, 0, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Report over the orders recorded from byte offset from (a record start, or 0) onwards. */
+    public static Report run(Path ordersFile, OrderCodec.Format format, ProductCatalog catalog, long from, int threads)
+            throws IOException {
+        long start = System.nanoTime();
+        if (format == OrderCodec.Format.BINARY) from = Math.max(from, OrderCodec.HEADER_BYTES);
+        return new Report(pass(ordersFile, format, catalog, from, threads), from, System.nanoTime() - start);
+    }
+
+    /**
+     * Report over several journal files read one after the other, e.g. the rolled segments of
+     * the order log followed by the active file (see OrderSegments). end is the end of the last.
+     */
+    public static Report run(List<Path> files, OrderCodec.Format format, ProductCatalog catalog, int threads)
+            throws IOException {
+        long start = System.nanoTime();
+        Stats all = new Stats();
+        long bytes = 0;
+        for (Path file : files) {
+            long from = format == OrderCodec.Format.BINARY ? OrderCodec.HEADER_BYTES : 0;
+            Stats s = pass(file, format, catalog, from, threads);
+            all.merge(s);
+            all.end = s.end;
+            bytes += Math.max(s.end - from, 0);
+        }
+        return new Report(all, 0, bytes, System.nanoTime() - start);
+    }
+
+    private static Stats pass(Path ordersFile, OrderCodec.Format format, ProductCatalog catalog, long from, int threads)
+            throws IOException {
+        boolean binary = format == OrderCodec.Format.BINARY;
+        try (FileChannel ch = FileChannel.open(ordersFile, StandardOpenOption.READ)) {
+            long to = ch.size();
+            if (from >= to) return new Stats();
+            long[] bounds = binary ? StockRecovery.binaryBounds(ch, from, to, threads)
+                    : StockRecovery.textBounds(ch, from, to, threads);
+            Pass pass = new Pass(ch, bounds, 0, bounds.length - 1, binary,
+                    binary ? null : new StockRecovery.NameIds(catalog));
+            if (bounds.length == 2) return pass.compute();
+            ForkJoinPool pool = new ForkJoinPool(Math.max(threads, 1), p -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                t.setName("order-analytics-" + t.getPoolIndex());
+                return t;
+            }, null, false);
+            try {
+                return pool.invoke(pass);
+            } finally {
+                pool.shutdownNow();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // ---- pass ----
+
+    // Parses chunks [lo, hi) of bounds: one directly, more by forking the halves and merging.
+    // ForkJoinTask is Serializable, but a pass over an open FileChannel never leaves the process.
+    @SuppressWarnings("serial")
+    private static final class Pass extends RecursiveTask<Stats> {
+        private final FileChannel ch;
+        private final long[] bounds;
+        private final int lo, hi;
+        private final boolean binary;
+        private final StockRecovery.NameIds names;
+
+        Pass(FileChannel ch, long[] bounds, int lo, int hi, boolean binary, StockRecovery.NameIds names) {
+            this.ch = ch;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+            this.binary = binary;
+            this.names = names;
+        }
+
+        @Override
+        protected Stats compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                Pass left = new Pass(ch, bounds, lo, mid, binary, names);
+                left.fork();
+                Stats right = new Pass(ch, bounds, mid, hi, binary, names).compute();
+                return left.join().merge(right);
+            }
+            Stats s = new Stats();
+            long from = bounds[lo], to = bounds[hi];
+            s.end = from;
+            if (to <= from) return s;
+            try {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+                s.end = from + (binary ? parseBinary(buf, s) : parseText(buf, names, s));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return s;
+        }
+    }
+
+    // Both parsers return where the last complete record ends, relative to buf
+    private static int parseBinary(MappedByteBuffer buf, Stats s) {
+        buf.order(ByteOrder.BIG_ENDIAN);
+        DayClock clock = new DayClock(ZoneId.systemDefault());
+        int pos = 0, limit = buf.limit();
+        while (pos + 4 <= limit) {
+            int len = buf.getInt(pos);
+            int end = pos + 4 + len;
+            if (len < 0 || end > limit) break;
+            buf.position(pos + 4);
+            OrderCodec.getVarLong(buf); // order number
+            int day = clock.dayOf(OrderCodec.getVarLong(buf));
+            int lines = (int) OrderCodec.getVarLong(buf);
+            for (int i = 0; i < lines; i++) {
+                int id = (int) OrderCodec.getVarLong(buf);
+                long qty = OrderCodec.getVarLong(buf);
+                long unitPrice = OrderCodec.getVarLong(buf);
+                int nameLength = (int) OrderCodec.getVarLong(buf);
+                buf.position(buf.position() + nameLength);
+                s.line(id, qty, qty * unitPrice);
+            }
+            s.order(day, OrderCodec.getVarLong(buf));
+            pos = end;
+        }
+        return pos;
+    }
+
+    // "Date: Fri Oct 16 13:48:32 IST 2026", "<name> x <qty> = ₹<amount>", "Total: ₹<amount>";
+    // a record counts once its Total line is seen
+    private static int parseText(MappedByteBuffer buf, StockRecovery.NameIds names, Stats s) {
+        int limit = buf.limit();
+        int[] pendingIds = new int[16];
+        long[] pendingQty = new long[16];
+        long[] pendingAmount = new long[16];
+        int pending = -1; // -1 outside a record
+        int day = UNKNOWN_DAY;
+        int pos = 0, complete = 0;
+        while (pos < limit) {
+            int end = pos;
+            while (end < limit && buf.get(end) != '\n') end++;
+            int a = pos, e = end;
+            pos = end + 1;
+            while (a < e && (buf.get(a) == ' ' || buf.get(a) == '\t')) a++;
+            while (e > a && (buf.get(e - 1) == ' ' || buf.get(e - 1) == '\r')) e--;
+            if (e == a) continue;
+            if (e - a == 4 && StockRecovery.isSeparatorLine(buf, a, e)) {
+                pending = 0;
+                day = UNKNOWN_DAY;
+            } else if (pending < 0 || StockRecovery.startsWith(buf, a, e, "OrderId:")) {
+                continue;
+            } else if (StockRecovery.startsWith(buf, a, e, "Date:")) {
+                day = parseDay(buf, a + 5, e);
+            } else if (StockRecovery.startsWith(buf, a, e, "Total:")) {
+                for (int i = 0; i < pending; i++) {
+                    if (pendingIds[i] != 0) {
+                        s.line(pendingIds[i], pendingQty[i], pendingAmount[i]);
+                    } else {
+                        s.unmatched++;
+                        s.units += pendingQty[i];
+                    }
+                }
+                s.order(day, parseAmount(buf, a + 6, e));
+                pending = -1;
+                complete = Math.min(pos, limit);
+            } else {
+                int eq = StockRecovery.lastIndexOf(buf, a, e, " = ");
+                int x = eq < 0 ? -1 : StockRecovery.lastIndexOf(buf, a, eq, " x ");
+                if (x < 0) continue;
+                if (pending == pendingIds.length) {
+                    pendingIds = Arrays.copyOf(pendingIds, pending * 2);
+                    pendingQty = Arrays.copyOf(pendingQty, pending * 2);
+                    pendingAmount = Arrays.copyOf(pendingAmount, pending * 2);
+                }
+                pendingIds[pending] = names.idOf(buf, a, x);
+                pendingQty[pending] = parseCount(buf, x + 3, eq);
+                pendingAmount[pending++] = parseAmount(buf, eq + 3, e);
+            }
+        }
+        return complete;
+    }
+
+    // The whole number at the start of [from, to), after any spaces
+    private static long parseCount(ByteBuffer buf, int from, int to) {
+        int i = from;
+        while (i < to && buf.get(i) == ' ') i++;
+        long v = 0;
+        for (; i < to; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9' || v > 100_000_000) break;
+            v = v * 10 + (b - '0');
+        }
+        return v;
+    }
+
+    // Paise in the first number in [from, to), skipping any currency symbol before it
+    private static long parseAmount(ByteBuffer buf, int from, int to) {
+        int i = from;
+        while (i < to && (buf.get(i) < '0' || buf.get(i) > '9')) i++;
+        long major = 0;
+        for (; i < to; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9' || major > Long.MAX_VALUE / 1000) break;
+            major = major * 10 + (b - '0');
+        }
+        long minor = 0;
+        if (i < to && buf.get(i) == '.') {
+            for (int k = 0; k < 2; k++) {
+                i++;
+                int digit = i < to && buf.get(i) >= '0' && buf.get(i) <= '9' ? buf.get(i) - '0' : 0;
+                minor = minor * 10 + digit;
+            }
+        }
+        return major * 100 + minor;
+    }
+
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+    // Epoch day of a Date.toString() value ("Fri Oct 16 13:48:32 IST 2026"), as printed
+    private static int parseDay(ByteBuffer buf, int from, int to) {
+        while (from < to && buf.get(from) == ' ') from++;
+        // weekday, month, day of month, time, zone, year
+        int month = -1, dayOfMonth = -1, year = -1;
+        int field = 0;
+        for (int i = from; i < to && field < 6; field++) {
+            int end = i;
+            while (end < to && buf.get(end) != ' ') end++;
+            if (field == 1 && end - i == 3) month = monthOf(buf, i);
+            else if (field == 2) dayOfMonth = digits(buf, i, end);
+            else if (end == to) year = digits(buf, i, end);
+            i = end;
+            while (i < to && buf.get(i) == ' ') i++;
+        }
+        if (month < 0 || dayOfMonth < 1 || dayOfMonth > 31 || year < 0) return UNKNOWN_DAY;
+        return (int) epochDay(year, month, dayOfMonth);
+    }
+
+    private static int monthOf(ByteBuffer buf, int at) {
+        outer:
+        for (int m = 0; m < 12; m++) {
+            for (int k = 0; k < 3; k++) {
+                if (buf.get(at + k) != MONTHS.charAt(m * 3 + k)) continue outer;
+            }
+            return m + 1;
+        }
+        return -1;
+    }
+
+    private static int digits(ByteBuffer buf, int from, int to) {
+        if (from == to || to - from > 9) return -1;
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9') return -1;
+            v = v * 10 + (b - '0');
+        }
+        return v;
+    }
+
+    // Days since 1970-01-01 of a proleptic Gregorian date, without building a LocalDate
+    static long epochDay(long year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yoe = y - era * 400;
+        long doy = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    // Epoch day of epoch millis in one zone; remembers the current day's bounds, since
+    // consecutive orders almost always fall on the same day
+    private static final class DayClock {
+        private final ZoneId zone;
+        private long dayStart = 1, dayEnd = 0;
+        private int day;
+
+        DayClock(ZoneId zone) { this.zone = zone; }
+
+        int dayOf(long millis) {
+            if (millis < dayStart || millis >= dayEnd) {
+                LocalDate d = Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+                dayStart = d.atStartOfDay(zone).toInstant().toEpochMilli();
+                dayEnd = d.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+                day = (int) d.toEpochDay();
+            }
+            return day;
+        }
+    }
+
+    // ---- tables ----
+
+    // What one chunk (or a merged run of chunks) adds up to
+    private static final class Stats {
+        final KeyTotals products = new KeyTotals(); // id -> units, revenue
+        final KeyTotals days = new KeyTotals();     // epoch day -> orders, revenue
+        long orders;
+        long units;
+        long revenue;
+        long unmatched;
+        long end;
+
+        void line(int id, long qty, long amount) {
+            products.add(id, qty, amount);
+            units += qty;
+        }
+
+        void order(int day, long total) {
+            if (day != UNKNOWN_DAY) days.add(day, 1, total);
+            orders++;
+            revenue += total;
+        }
+
+        Stats merge(Stats other) {
+            products.merge(other.products);
+            days.merge(other.days);
+            orders += other.orders;
+            units += other.units;
+            revenue += other.revenue;
+            unmatched += other.unmatched;
+            end = Math.max(end, other.end);
+            return this;
+        }
+    }
+
+}
@@ -0,0 +1,326 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.function.Consumer;
+
+/*
+ * Compact binary order format ("orders.bin").
+ * - File header: "ORDB" magic + format version byte
+ * - Then one record per order: 4-byte big-endian payload length, then the payload
+ * - Payload: varint order number, varint orderedAt millis, varint line count,
+ *   per line varint product id, varint qty, varint unit price (minor units) and a
+ *   length-prefixed UTF-8 product name, then varint total
+ *
+ * Also reads the human-readable orders.txt layout so existing files can be converted.
+ */
+final class OrderCodec {
+    static final byte[] MAGIC = { 'O', 'R', 'D', 'B' };
+    static final byte VERSION = 1;
+    static final int HEADER_BYTES = MAGIC.length + 1;
+
+    private static final String DATE_PATTERN = "EEE MMM dd HH:mm:ss zzz yyyy";
+
+    private OrderCodec() {}
+
+    /** Persistence format for orders, selected with -Dorders.format=text|binary. */
+    enum Format {
+        TEXT("orders.txt"), BINARY("orders.bin");
+
+        final String defaultFile;
+
+        Format(String defaultFile) { this.defaultFile = defaultFile; }
+
+        /** The bytes persistOrder appends for one order. */
+        byte[] encode(Order order) {
+            if (this == BINARY) return OrderCodec.encode(order);
+            String nl = System.lineSeparator();
+            return (OrderStore.SEPARATOR + nl + order + nl).getBytes(StandardCharsets.UTF_8);
+        }
+
+        static Format parse(String s) {
+            return valueOf(s.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /** Writes the file header if the file is missing or empty; fails if it holds something else. */
+    static void ensureHeader(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            if (ch.size() == 0) {
+                ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES).put(MAGIC).put(VERSION).flip();
+                while (h.hasRemaining()) ch.write(h, h.position());
+            } else {
+                checkHeader(ch);
+            }
+        }
+    }
+
+    static void checkHeader(FileChannel ch) throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+        while (h.hasRemaining() && ch.read(h, h.position()) > 0) { }
+        h.flip();
+        if (h.remaining() < HEADER_BYTES) throw new IOException("Not a binary orders file (too short)");
+        for (byte m : MAGIC) {
+            if (h.get() != m) throw new IOException("Not a binary orders file (bad magic)");
+        }
+        byte version = h.get();
+        if (version != VERSION) throw new IOException("Unsupported binary orders version " + version);
+    }
+
+    /**
+     * Length of the file up to the end of its last complete record, so a record torn by a
+     * crash can be cut off before new ones are appended behind it. Binary files are walked
+     * frame by frame from the header; text files end at their last line break, leaving a
+     * torn record's complete lines to be skipped by readers as an incomplete record.
+     */
+    static long completeLength(FileChannel ch, Format format) throws IOException {
+        long size = ch.size();
+        if (format == Format.BINARY) {
+            if (size < HEADER_BYTES) return size;
+            long pos = HEADER_BYTES;
+            ByteBuffer len = ByteBuffer.allocate(4);
+            while (pos + 4 <= size) {
+                len.clear();
+                while (len.hasRemaining() && ch.read(len, pos + len.position()) > 0) { }
+                int n = len.getInt(0);
+                if (n < 0 || pos + 4 + n > size) break;
+                pos += 4 + n;
+            }
+            return pos;
+        }
+        ByteBuffer block = ByteBuffer.allocate(8192);
+        long end = size;
+        while (end > 0) {
+            long from = Math.max(0, end - block.capacity());
+            block.clear().limit((int) (end - from));
+            while (block.hasRemaining() && ch.read(block, from + block.position()) > 0) { }
+            for (int i = block.position() - 1; i >= 0; i--) {
+                if (block.get(i) == '\n') return from + i + 1;
+            }
+            end = from;
+        }
+        return 0;
+    }
+
+    // ---- encoding ----
+
+    /** Length-prefixed record for one order, ready to append after the file header. */
+    static byte[] encode(Order order) {
+        List<CartItem> items = order.getItems();
+        byte[][] names = new byte[items.size()][];
+        int size = 4 * 10;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = items.get(i).getProduct().getName().getBytes(StandardCharsets.UTF_8);
+            size += 4 * 10 + names[i].length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(4 + size);
+        buf.position(4);
+        putVarLong(buf, OrderIdGenerator.parse(order.getId()));
+        putVarLong(buf, order.getOrderedAt().getTime());
+        putVarLong(buf, items.size());
+        for (int i = 0; i < names.length; i++) {
+            CartItem ci = items.get(i);
+            putVarLong(buf, ci.getProduct().getId());
+            putVarLong(buf, ci.getQty());
+            putVarLong(buf, ci.getProduct().getPrice());
+            putVarLong(buf, names[i].length);
+            buf.put(names[i]);
+        }
+        putVarLong(buf, order.getTotal());
+        int length = buf.position() - 4;
+        buf.putInt(0, length);
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    /** Decodes one payload (without its length prefix) from buf's position. */
+    static Order decode(ByteBuffer buf) {
+        long number = getVarLong(buf);
+        long orderedAt = getVarLong(buf);
+        int lines = (int) getVarLong(buf);
+        List<CartItem> items = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            int productId = (int) getVarLong(buf);
+            int qty = (int) getVarLong(buf);
+            long unitPrice = getVarLong(buf);
+            byte[] name = new byte[(int) getVarLong(buf)];
+            buf.get(name);
+            // Snapshot of the product as it was sold, not the live catalog entry
+            Product p = new Product(productId, new String(name, StandardCharsets.UTF_8), "", unitPrice, 0);
+            items.add(new CartItem(p, qty));
+        }
+        long total = getVarLong(buf);
+        return new Order(OrderIdGenerator.PREFIX + number, new Date(orderedAt), items, total);
+    }
+
+    /** Calls sink for every record in a binary orders file, in file order. */
+    static void readBinary(Path file, Consumer<Order> sink) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            checkHeader(ch);
+            long pos = HEADER_BYTES, size = ch.size();
+            ByteBuffer len = ByteBuffer.allocate(4);
+            while (pos + 4 <= size) {
+                len.clear();
+                while (len.hasRemaining() && ch.read(len, pos + len.position()) > 0) { }
+                int n = len.getInt(0);
+                if (n < 0 || pos + 4 + n > size) break; // torn tail
+                ByteBuffer payload = ByteBuffer.allocate(n);
+                while (payload.hasRemaining() && ch.read(payload, pos + 4 + payload.position()) > 0) { }
+                payload.flip();
+                sink.accept(decode(payload));
+                pos += 4 + n;
+            }
+        }
+    }
+
+    /** As readBinary(file, sink), over a stream positioned at the file header. */
+    static void readBinary(InputStream stream, Consumer<Order> sink) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        byte[] header = new byte[HEADER_BYTES];
+        try {
+            in.readFully(header);
+        } catch (EOFException e) {
+            throw new IOException("Not a binary orders file (too short)");
+        }
+        if (!Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new IOException("Not a binary orders file (bad magic)");
+        }
+        if (header[MAGIC.length] != VERSION) throw new IOException("Unsupported binary orders version " + header[MAGIC.length]);
+        while (true) {
+            byte[] payload;
+            try {
+                int n = in.readInt();
+                if (n < 0) return;
+                payload = new byte[n];
+                in.readFully(payload);
+            } catch (EOFException e) {
+                return; // end of file, or a torn tail
+            }
+            sink.accept(decode(ByteBuffer.wrap(payload)));
+        }
+    }
+
+    // Unsigned LEB128; negative values take the full 10 bytes, which never happens for ids, dates or prices
+    static void putVarLong(ByteBuffer buf, long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte) v);
+    }
+
+    static long getVarLong(ByteBuffer buf) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    // ---- text format ----
+
+    /**
+     * Parser for the "Date: " lines of text orders (Date.toString layout). Zone
+     * abbreviations are resolved against India first, so "IST" means +05:30 as in the
+     * shop's existing files rather than Israel or Ireland.
+     */
+    static SimpleDateFormat orderDateFormat() {
+        SimpleDateFormat f = new SimpleDateFormat(DATE_PATTERN, Locale.US);
+        f.setTimeZone(TimeZone.getTimeZone("Asia/Kolkata"));
+        return f;
+    }
+
+    /**
+     * Streams the records of a text orders file (the "----" separated layout written by
+     * Order.toString). Product ids are looked up by name in catalog; unknown names get id 0.
+     */
+    static void readText(Path file, ProductCatalog catalog, Consumer<Order> sink) throws IOException {
+        Map<String, Product> byName = new HashMap<>();
+        for (Product p : catalog.all()) byName.putIfAbsent(p.getName(), p);
+        SimpleDateFormat dates = orderDateFormat();
+
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            TextRecord rec = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String text = line.trim();
+                if (text.equals(OrderStore.SEPARATOR)) {
+                    if (rec != null && rec.complete()) sink.accept(rec.toOrder());
+                    rec = new TextRecord();
+                } else if (rec != null) {
+                    rec.accept(text, dates, byName);
+                }
+            }
+            if (rec != null && rec.complete()) sink.accept(rec.toOrder());
+        }
+    }
+
+    private static final class TextRecord {
+        String id;
+        Date orderedAt;
+        long total = -1;
+        final List<CartItem> items = new ArrayList<>();
+
+        boolean complete() { return id != null && orderedAt != null && total >= 0; }
+
+        Order toOrder() { return new Order(id, orderedAt, items, total); }
+
+        void accept(String text, SimpleDateFormat dates, Map<String, Product> byName) {
+            if (text.startsWith("OrderId: ")) {
+                id = text.substring("OrderId: ".length()).trim();
+            } else if (text.startsWith("Date: ")) {
+                try {
+                    orderedAt = dates.parse(text.substring("Date: ".length()));
+                } catch (ParseException e) {
+                    orderedAt = new Date(0);
+                }
+            } else if (text.startsWith("Total: ")) {
+                total = Money.parse(text.substring("Total: ".length()));
+            } else if (!text.isEmpty()) {
+                // "<name> x <qty> = ₹<amount>"; the name itself may contain " x "
+                int eq = text.lastIndexOf(" = ");
+                int x = eq < 0 ? -1 : text.lastIndexOf(" x ", eq);
+                if (x < 0) return;
+                String name = text.substring(0, x);
+                int qty;
+                long amount;
+                try {
+                    qty = Integer.parseInt(text.substring(x + 3, eq).trim());
+                    amount = Money.parse(text.substring(eq + 3));
+                } catch (NumberFormatException e) {
+                    return;
+                }
+                Product known = byName.get(name);
+                long unit = qty == 0 ? 0 : amount / qty;
+                items.add(new CartItem(new Product(known == null ? 0 : known.getId(), name, "", unit, 0), qty));
+            }
+        }
+    }
+
+    /** Rewrites a text orders file as a binary one; returns the number of orders converted. */
+    static long convertTextToBinary(Path text, Path binary, ProductCatalog catalog) throws IOException {
+        Files.deleteIfExists(binary);
+        ensureHeader(binary);
+        long[] count = { 0 };
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(binary, StandardOpenOption.APPEND))) {
+            IOException[] failure = { null };
+            readText(text, catalog, order -> {
+                if (failure[0] != null) return;
+                try {
+                    out.write(encode(order));
+                    count[0]++;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) throw failure[0];
+        }
+        return count[0];
+    }
+}
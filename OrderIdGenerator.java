@@ -0,0 +1,69 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Source of order ids. Ids are 64-bit numbers rendered as "ORD" + number,
+ * the same shape the orders file has always used.
+ */
+interface OrderIdGenerator {
+    String PREFIX = "ORD";
+
+    long nextId();
+
+    default String next() {
+        return PREFIX + nextId();
+    }
+
+    /** Parses an id rendered by next(); returns -1 if s is not one. */
+    static long parse(String s) {
+        if (s == null || !s.startsWith(PREFIX) || s.length() == PREFIX.length()) return -1;
+        try {
+            return Long.parseLong(s.substring(PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
+
+/*
+ * Snowflake-style generator: [41 bits millis since EPOCH][12 bits sequence][10 bits node].
+ * - The last issued id lives in one AtomicLong; next() is a CAS loop, no locks
+ * - Ids are strictly increasing per generator, and unique across generators with distinct node ids
+ * - If more than 4096 ids are needed in one millisecond the sequence carries into the
+ *   timestamp bits, i.e. the generator borrows from the next millisecond instead of blocking
+ */
+class SnowflakeIdGenerator implements OrderIdGenerator {
+    static final long EPOCH = 1735689600000L; // 2025-01-01T00:00:00Z
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+    private static final int TIMESTAMP_SHIFT = NODE_BITS + SEQUENCE_BITS;
+    private static final long SEQUENCE_ONE = 1L << NODE_BITS;
+
+    private final long node;
+    private final AtomicLong last = new AtomicLong();
+
+    public SnowflakeIdGenerator(int node) {
+        if (node < 0 || node > MAX_NODE) throw new IllegalArgumentException("node must be in 0.." + MAX_NODE);
+        this.node = node;
+    }
+
+    @Override
+    public long nextId() {
+        long floor = ((System.currentTimeMillis() - EPOCH) << TIMESTAMP_SHIFT) | node;
+        while (true) {
+            long prev = last.get();
+            long next = floor > prev ? floor : prev + SEQUENCE_ONE;
+            if (last.compareAndSet(prev, next)) return next;
+        }
+    }
+
+    /** Milliseconds since the Unix epoch encoded in an id from this generator. */
+    static long timestampOf(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+    }
+
+    static int nodeOf(long id) {
+        return (int) (id & MAX_NODE);
+    }
+}
@@ -0,0 +1,379 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Append-only order journal.
+ * - One long-lived FileChannel instead of opening the orders file per order
+ * - Concurrent appends are group-committed: the first caller to find no write
+ *   in progress becomes the leader and writes everything queued so far in a
+ *   single gathering write; the others wait until their record is covered
+ * - When the data is forced to disk is decided by an FsyncPolicy
+ * - roll() swaps the file underneath (see OrderSegments): appends are held off while it
+ *   runs, and a callback passed to append runs before the roll can start, so whatever
+ *   it does with the offset (e.g. indexing it) refers to the file the record went to
+ * - An interrupt never costs the journal its file: FileChannel closes itself when the thread
+ *   using it is interrupted, so the I/O runs with the interrupt held back, and if one lands
+ *   mid-write anyway the channel is reopened, the torn batch cut off and written again
+ */
+class OrderJournal implements Closeable {
+
+    static final class FsyncPolicy {
+        enum Mode { ALWAYS, INTERVAL, OS }
+
+        final Mode mode;
+        final long intervalMillis;
+
+        private FsyncPolicy(Mode mode, long intervalMillis) {
+            this.mode = mode;
+            this.intervalMillis = intervalMillis;
+        }
+
+        /** fsync before every commit returns. */
+        static FsyncPolicy always() { return new FsyncPolicy(Mode.ALWAYS, 0); }
+
+        /** fsync in the background at most every intervalMillis. */
+        static FsyncPolicy everyMillis(long intervalMillis) {
+            if (intervalMillis <= 0) throw new IllegalArgumentException("interval must be > 0");
+            return new FsyncPolicy(Mode.INTERVAL, intervalMillis);
+        }
+
+        /** Never fsync explicitly; the OS writes pages back when it wants. */
+        static FsyncPolicy os() { return new FsyncPolicy(Mode.OS, 0); }
+
+        /** Parses "always", "os" or an interval such as "100" / "100ms". */
+        static FsyncPolicy parse(String s) {
+            String v = s.trim().toLowerCase(Locale.ROOT);
+            if (v.equals("always")) return always();
+            if (v.equals("os")) return os();
+            if (v.endsWith("ms")) v = v.substring(0, v.length() - 2);
+            try {
+                return everyMillis(Long.parseLong(v));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unknown fsync policy: " + s);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mode == Mode.INTERVAL ? intervalMillis + "ms" : mode.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /** Told where a record was written, before the journal may roll over. */
+    interface Written {
+        void at(long offset) throws IOException;
+    }
+
+    /** Work done while the journal is rolled over. */
+    interface Rollover {
+        void run() throws IOException;
+    }
+
+    private static final ThreadLocal<Boolean> interrupted = new ThreadLocal<>();
+
+    private final Path file;
+    private final ReentrantReadWriteLock rolling = new ReentrantReadWriteLock();
+    private volatile FileChannel channel; // swapped by roll() and after an interrupted write
+    private final FsyncPolicy policy;
+    private final ScheduledExecutorService syncer;
+
+    private final Object lock = new Object();
+    private List<byte[]> pending = new ArrayList<>();
+    private long position;      // offset the next appended record will get
+    private long appendedSeq;   // sequence number of the last queued record
+    private long committedSeq;  // every record up to here has been written
+    private boolean writing;
+    private boolean dirty;      // written but not yet forced (INTERVAL mode)
+    private boolean closed;
+    private IOException failure;
+
+    private OrderJournal(Path file, FileChannel channel, FsyncPolicy policy) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.policy = policy;
+        this.position = channel.size();
+        if (policy.mode == FsyncPolicy.Mode.INTERVAL) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "order-journal-fsync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(this::syncIfDirty, policy.intervalMillis, policy.intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    static OrderJournal open(Path file, FsyncPolicy policy) throws IOException {
+        return new OrderJournal(file, openChannel(file), policy);
+    }
+
+    /**
+     * Opens an orders file written in format: writes the binary header if the file is new,
+     * and cuts off a record torn by a crash, which appends would otherwise land behind
+     * (misframing every binary record after it).
+     */
+    static OrderJournal open(Path file, OrderCodec.Format format, FsyncPolicy policy) throws IOException {
+        if (format == OrderCodec.Format.BINARY) OrderCodec.ensureHeader(file);
+        if (Files.exists(file)) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long complete = OrderCodec.completeLength(ch, format);
+                if (complete < ch.size()) {
+                    System.out.println("Dropping " + (ch.size() - complete) + " bytes of incomplete order at the end of " + file);
+                    ch.truncate(complete);
+                    ch.force(false);
+                }
+            }
+        }
+        return open(file, policy);
+    }
+
+    private static FileChannel openChannel(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    FsyncPolicy policy() { return policy; }
+
+    /**
+     * Appends one record and returns once the group commit containing it has been
+     * written (and forced, under the ALWAYS policy).
+     *
+     * @return file offset at which the record starts
+     */
+    public long append(byte[] record) throws IOException {
+        return appendAll(Collections.singletonList(record), null);
+    }
+
+    /** As append(record), then calls written with the offset before the journal can roll over. */
+    public long append(byte[] record, Written written) throws IOException {
+        return appendAll(Collections.singletonList(record), written);
+    }
+
+    /**
+     * Appends records back to back as part of one group commit; returns once they have
+     * been written (and forced, under the ALWAYS policy).
+     *
+     * @return file offset at which the first record starts
+     */
+    public long appendAll(List<byte[]> records) throws IOException {
+        return appendAll(records, null);
+    }
+
+    /** As appendAll(records), then calls written (if not null) with the first record's offset. */
+    public long appendAll(List<byte[]> records, Written written) throws IOException {
+        rolling.readLock().lock();
+        try {
+            long offset = doAppend(records);
+            if (written != null) written.at(offset);
+            return offset;
+        } finally {
+            rolling.readLock().unlock();
+            restoreInterrupt();
+        }
+    }
+
+    /**
+     * Waits for appends in progress to finish, closes the file, runs action (which may
+     * move the file away) and reopens the journal's path, creating it if needed. Appends
+     * made meanwhile wait and then go to the reopened file.
+     */
+    public void roll(Rollover action) throws IOException {
+        rolling.writeLock().lock();
+        try {
+            synchronized (lock) {
+                if (closed) throw new IOException("Order journal is closed");
+                if (failure != null) throw failure;
+            }
+            if (policy.mode != FsyncPolicy.Mode.OS) force(size());
+            channel.close();
+            try {
+                action.run();
+            } finally {
+                channel = openChannel(file);
+                synchronized (lock) {
+                    position = channel.size();
+                    dirty = false;
+                }
+            }
+        } finally {
+            rolling.writeLock().unlock();
+            restoreInterrupt();
+        }
+    }
+
+    private long doAppend(List<byte[]> records) throws IOException {
+        long seq;
+        long offset;
+        List<byte[]> batch;
+        long batchSeq;
+        long batchStart, batchEnd;
+        synchronized (lock) {
+            if (closed) throw new IOException("Order journal is closed");
+            if (failure != null) throw failure;
+            offset = position;
+            for (byte[] record : records) position += record.length;
+            pending.addAll(records);
+            seq = ++appendedSeq;
+            while (writing) {
+                waitUninterruptibly();
+                if (failure != null) throw failure;
+                if (committedSeq >= seq) return offset;
+            }
+            // Leader: take everything queued so far, including our own record
+            writing = true;
+            batch = pending;
+            pending = new ArrayList<>();
+            batchSeq = appendedSeq;
+            batchStart = batchEnd = position;
+            for (byte[] record : batch) batchStart -= record.length;
+        }
+
+        IOException error = null;
+        try {
+            while (true) {
+                holdInterrupt();
+                try {
+                    write(batch);
+                    break;
+                } catch (ClosedByInterruptException e) {
+                    reopen(batchStart);
+                }
+            }
+            if (policy.mode == FsyncPolicy.Mode.ALWAYS) force(batchEnd);
+        } catch (IOException e) {
+            error = e;
+        }
+
+        synchronized (lock) {
+            writing = false;
+            if (error != null) {
+                failure = error;
+            } else {
+                committedSeq = batchSeq;
+                dirty = true;
+            }
+            lock.notifyAll();
+        }
+        if (error != null) throw error;
+        return offset;
+    }
+
+    private void write(List<byte[]> batch) throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[batch.size()];
+        long remaining = 0;
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = ByteBuffer.wrap(batch.get(i));
+            remaining += bufs[i].remaining();
+        }
+        while (remaining > 0) remaining -= channel.write(bufs);
+    }
+
+    // Forces what has been written so far (up to end), reopening the file if an interrupt
+    // closed the channel under the call
+    private void force(long end) throws IOException {
+        while (true) {
+            holdInterrupt();
+            try {
+                channel.force(false);
+                return;
+            } catch (ClosedByInterruptException e) {
+                reopen(end);
+            }
+        }
+    }
+
+    // After an interrupt closed the channel: note the interrupt for the caller, reopen the
+    // file and cut off anything past end, i.e. the part of a batch that is about to be rewritten
+    private void reopen(long end) throws IOException {
+        while (true) {
+            holdInterrupt();
+            FileChannel ch = openChannel(file);
+            try {
+                if (ch.size() > end) ch.truncate(end);
+                channel = ch;
+                return;
+            } catch (ClosedByInterruptException e) {
+                // Interrupted again before the file was ready: ch is closed, start over
+            }
+        }
+    }
+
+    private void syncIfDirty() {
+        rolling.readLock().lock();
+        try {
+            synchronized (lock) {
+                if (!dirty || closed) return;
+                dirty = false;
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // Closed under us by an interrupted writer, which reopens it: try again next time
+                synchronized (lock) {
+                    dirty = true;
+                }
+            }
+        } catch (IOException e) {
+            synchronized (lock) {
+                if (failure == null) failure = e;
+            }
+        } finally {
+            rolling.readLock().unlock();
+        }
+    }
+
+    // A record that is already queued will be written regardless, so waiting for it
+    // is not interruptible; the interrupt is re-asserted once the caller is done.
+    private void waitUninterruptibly() {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            interrupted.set(Boolean.TRUE);
+        }
+    }
+
+    // Clears the calling thread's interrupt before it touches the channel, to be re-asserted
+    // by restoreInterrupt once the journal is done with the thread
+    private static void holdInterrupt() {
+        if (Thread.interrupted()) interrupted.set(Boolean.TRUE);
+    }
+
+    private static void restoreInterrupt() {
+        if (interrupted.get() == Boolean.TRUE) {
+            interrupted.remove();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Current end of the journal, i.e. the offset the next record will be written at. */
+    public long size() {
+        synchronized (lock) {
+            return position;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            // Let queued records reach the file before the channel goes away
+            while (writing || (failure == null && committedSeq < appendedSeq)) waitUninterruptibly();
+        }
+        restoreInterrupt();
+        if (syncer != null) syncer.shutdownNow();
+        try {
+            if (policy.mode != FsyncPolicy.Mode.OS) channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+}
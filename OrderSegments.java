@@ -0,0 +1,678 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Segmented order log: the orders file is the active segment, older orders live in sealed
+ * segments under "<orders file>.segments/".
+ * - Once the active file has grown past segmentBytes it is rolled: with appends held off
+ *   (OrderJournal.roll) the manifest records it as a sealed segment, it is moved to
+ *   "<base>.txt" (".bin") and an empty file takes its place; the snapshots are checkpointed
+ *   over it only after appends resume (a snapshot behind the active file's base catches up
+ *   by replaying the sealed segments it has not reached, see forEachSealed)
+ * - Offsets are logical: each segment starts at a base, the total length of the segments
+ *   before it, so the journal offsets kept in the stock and sales snapshots stay meaningful
+ *   across rolls (baseOf gives the active file's base)
+ * - The manifest is the commit point of a roll: it is replaced (temp file + rename) before
+ *   the file is moved, and open() finishes a move cut short by a crash
+ * - Each sealed segment gets a sparse index ("<base>.sparse"): one entry per BLOCK records
+ *   with the block's byte range, record count and lowest/highest order number and time,
+ *   so lookups by id or date only read the blocks that can hold a match
+ * - Segments whose newest order is older than the retention period are compacted into gzip
+ *   archives ("<base>.txt.gz"); sparse offsets point into the uncompressed bytes, so the
+ *   index still works and an archive is read by streaming it through GZIPInputStream
+ * - Rolling, indexing and compaction run on one background thread ("order-segments")
+ *
+ * Readers see the orders in sealed segments only; the active file is read through
+ * OrderStore as before.
+ */
+class OrderSegments implements Closeable {
+    private static final String MANIFEST = "manifest";
+    private static final int BLOCK = 256;
+    private static final int SPARSE_MAGIC = 0x53505253; // "SPRS"
+    private static final int BLOCK_LONGS = 7;          // start, end, min/max number, min/max time, records
+
+    /** Reads one sealed segment, decompressed, from its first byte. */
+    interface SegmentReader {
+        void read(InputStream in) throws IOException;
+    }
+
+    /** Gets an uncompressed sealed segment and the logical offset it starts at. */
+    interface SealedVisitor {
+        void visit(Path file, long base) throws IOException;
+    }
+
+    // Gets each record a scan passes over; returns false to stop the scan
+    private interface Sink {
+        boolean accept(long start, long end, long number, long orderedAt, byte[] record) throws IOException;
+    }
+
+    private static final class Segment {
+        final long base;
+        final long length;
+        long orders = -1;          // -1 until the sparse index has been built
+        long first = -1;
+        long last = -1;
+        boolean archived;
+        long[] blocks;             // sparse index, loaded on first use
+
+        Segment(long base, long length) {
+            this.base = base;
+            this.length = length;
+        }
+    }
+
+    private final Path ordersFile;
+    private final OrderCodec.Format format;
+    private final Path dir;
+    private final long segmentBytes;
+    private final long retentionMillis;
+    private final List<Segment> segments = new ArrayList<>(); // oldest first
+    private long activeBase;
+
+    private OrderJournal journal;
+    private Checkpointer checkpointer;
+    private OrderStore store;
+    private ScheduledExecutorService timer;
+    private final Object maintaining = new Object(); // one maintain() at a time
+
+    private OrderSegments(Path ordersFile, OrderCodec.Format format, long segmentBytes, long retentionMillis) {
+        this.ordersFile = ordersFile;
+        this.format = format;
+        this.dir = dirFor(ordersFile);
+        this.segmentBytes = segmentBytes;
+        this.retentionMillis = retentionMillis;
+    }
+
+    static Path dirFor(Path ordersFile) {
+        return ordersFile.resolveSibling(ordersFile.getFileName() + ".segments");
+    }
+
+    /** Logical offset of the first byte of ordersFile: 0 until the log has been rolled. */
+    static long baseOf(Path ordersFile) throws IOException {
+        Path manifest = dirFor(ordersFile).resolve(MANIFEST);
+        if (Files.notExists(manifest)) return 0;
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            String[] f = line.trim().split("\\s+");
+            if (f[0].equals("active")) return parseField(f, 1, manifest);
+        }
+        throw new IOException(manifest + " has no active segment");
+    }
+
+    /**
+     * Calls visitor with every sealed segment of ordersFile, oldest first, for recovery
+     * without a snapshot; archives are decompressed into a temporary file for the call.
+     * Fails if a segment the manifest lists is missing.
+     */
+    static void forEachSealed(Path ordersFile, OrderCodec.Format format, SealedVisitor visitor) throws IOException {
+        forEachSealed(ordersFile, format, 0, visitor);
+    }
+
+    /** As forEachSealed, skipping the segments that end at or before logical offset from. */
+    static void forEachSealed(Path ordersFile, OrderCodec.Format format, long from, SealedVisitor visitor)
+            throws IOException {
+        OrderSegments log = new OrderSegments(ordersFile, format, Long.MAX_VALUE, 0);
+        log.readManifest();
+        for (Segment s : log.segments) {
+            if (s.base + s.length <= from) continue;
+            Path file = s.archived ? log.archiveOf(s) : log.fileOf(s);
+            if (Files.notExists(file)) throw new IOException("Missing order segment " + file);
+            if (!s.archived) {
+                visitor.visit(file, s.base);
+                continue;
+            }
+            Path tmp = log.dir.resolve(log.name(s) + ".replay");
+            try {
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(file), 1 << 16)) {
+                    Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                visitor.visit(tmp, s.base);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * Opens the log of ordersFile, finishing a roll interrupted by a crash. Call before
+     * anything opens ordersFile itself.
+     *
+     * @param segmentBytes    size past which the active file is rolled
+     * @param retentionMillis age of its newest order after which a segment is archived; 0 never
+     */
+    static OrderSegments open(Path ordersFile, OrderCodec.Format format, long segmentBytes, long retentionMillis)
+            throws IOException {
+        if (segmentBytes <= 0) throw new IllegalArgumentException("segmentBytes must be > 0");
+        OrderSegments log = new OrderSegments(ordersFile, format, segmentBytes, retentionMillis);
+        Files.createDirectories(log.dir);
+        log.readManifest();
+        log.recover();
+        return log;
+    }
+
+    /**
+     * Starts rolling, indexing and compacting every intervalMillis. Rolls go through
+     * checkpointer, which checkpoints once the active file is sealed, and reset store (may
+     * be null) once it is replaced.
+     */
+    synchronized void start(OrderJournal journal, Checkpointer checkpointer, OrderStore store, long intervalMillis) {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("intervalMillis must be > 0");
+        this.journal = journal;
+        this.checkpointer = checkpointer;
+        this.store = store;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "order-segments");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::maintainQuietly, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized int sealedCount() {
+        return segments.size();
+    }
+
+    public synchronized int archivedCount() {
+        int n = 0;
+        for (Segment s : segments) if (s.archived) n++;
+        return n;
+    }
+
+    /** Sealed segments that have not been archived yet, oldest first. */
+    public synchronized List<Path> sealedFiles() {
+        List<Path> files = new ArrayList<>();
+        for (Segment s : segments) if (!s.archived) files.add(fileOf(s));
+        return files;
+    }
+
+    // ---- maintenance ----
+
+    private void maintainQuietly() {
+        try {
+            maintain();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Order log maintenance failed: " + e.getMessage());
+        }
+    }
+
+    /** Rolls the active file if it is big enough, indexes new segments and archives expired ones. */
+    void maintain() throws IOException {
+        synchronized (maintaining) {
+            if (Files.size(ordersFile) >= segmentBytes) roll();
+            for (Segment s : unindexed()) index(s);
+            if (retentionMillis > 0) {
+                for (Segment s : expired(System.currentTimeMillis() - retentionMillis)) archive(s);
+            }
+        }
+    }
+
+    /**
+     * Seals the active file now (if it holds any orders). Takes this log's monitor before
+     * the journal's roll lock: readers hold the monitor while they read, and must only keep
+     * a roll waiting, never the appends a roll would hold off. Appends are held off only
+     * while the file is sealed and replaced; the checkpoint over it runs after they resume.
+     */
+    synchronized void roll() throws IOException {
+        if (journal == null || checkpointer == null) throw new IllegalStateException("order log is not started");
+        checkpointer.checkpointAfter(() -> journal.roll(this::seal));
+    }
+
+    // Runs with appends held off: fixes the segment boundary at the end of the active file
+    private synchronized void seal() throws IOException {
+        long length = Files.size(ordersFile);
+        if (length <= firstRecord()) return;
+        Segment s = new Segment(activeBase, length);
+        segments.add(s);
+        activeBase += length;
+        try {
+            writeManifest();
+            Files.move(ordersFile, fileOf(s), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            segments.remove(segments.size() - 1);
+            activeBase -= length;
+            writeManifest();
+            throw e;
+        }
+        createActive();
+        if (store != null) store.reopen();
+    }
+
+    private synchronized List<Segment> unindexed() {
+        List<Segment> out = new ArrayList<>();
+        for (Segment s : segments) if (s.orders < 0) out.add(s);
+        return out;
+    }
+
+    private synchronized List<Segment> expired(long before) {
+        List<Segment> out = new ArrayList<>();
+        for (Segment s : segments) if (!s.archived && s.orders >= 0 && s.last < before) out.add(s);
+        return out;
+    }
+
+    // Scans a sealed segment once and writes its sparse index
+    private void index(Segment s) throws IOException {
+        long[] blocks = buildBlocks(s);
+        writeSparse(sparseOf(s), blocks);
+        long orders = 0, first = blocks.length > 0 ? Long.MAX_VALUE : 0, last = 0;
+        for (int b = 0; b < blocks.length; b += BLOCK_LONGS) {
+            first = Math.min(first, blocks[b + 4]);
+            last = Math.max(last, blocks[b + 5]);
+            orders += blocks[b + 6];
+        }
+        synchronized (this) {
+            s.blocks = blocks;
+            s.orders = orders;
+            s.first = first;
+            s.last = last;
+            writeManifest();
+        }
+    }
+
+    private long[] buildBlocks(Segment s) throws IOException {
+        long[][] out = { new long[BLOCK_LONGS * 16] };
+        int[] count = { 0 };
+        long[] cur = new long[BLOCK_LONGS];
+        try (InputStream in = openAt(s, 0)) {
+            scan(in, 0, s.length, true, (start, end, number, at, record) -> {
+                if (cur[6] == 0) {
+                    cur[0] = start;
+                    cur[2] = cur[3] = number;
+                    cur[4] = cur[5] = at;
+                }
+                cur[1] = end;
+                cur[2] = Math.min(cur[2], number);
+                cur[3] = Math.max(cur[3], number);
+                cur[4] = Math.min(cur[4], at);
+                cur[5] = Math.max(cur[5], at);
+                if (++cur[6] == BLOCK) {
+                    out[0] = addBlock(out[0], count[0]++, cur);
+                    cur[6] = 0;
+                }
+                return true;
+            });
+        }
+        if (cur[6] > 0) out[0] = addBlock(out[0], count[0]++, cur);
+        return Arrays.copyOf(out[0], count[0] * BLOCK_LONGS);
+    }
+
+    private static long[] addBlock(long[] blocks, int i, long[] block) {
+        if ((i + 1) * BLOCK_LONGS > blocks.length) blocks = Arrays.copyOf(blocks, blocks.length * 2);
+        System.arraycopy(block, 0, blocks, i * BLOCK_LONGS, BLOCK_LONGS);
+        return blocks;
+    }
+
+    // Compresses a segment into its archive; readers switch over once the manifest says so
+    private void archive(Segment s) throws IOException {
+        Path plain = fileOf(s);
+        Path gz = archiveOf(s);
+        Path tmp = gz.resolveSibling(gz.getFileName() + ".tmp");
+        try (InputStream in = Files.newInputStream(plain);
+             OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), 1 << 16)) {
+            in.transferTo(out);
+        }
+        Files.move(tmp, gz, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            s.archived = true;
+            writeManifest();
+            Files.delete(plain);
+        }
+    }
+
+    // ---- reading ----
+
+    /** The record of order number in a sealed segment, or null. Newest segments are searched first. */
+    public synchronized String find(long number) throws IOException {
+        if (number < 0) return null;
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment s = segments.get(i);
+            long[] blocks = blocksOf(s);
+            for (int b = 0; b < blocks.length; b += BLOCK_LONGS) {
+                if (number < blocks[b + 2] || number > blocks[b + 3]) continue;
+                String[] hit = { null };
+                readBlock(s, blocks, b, false, (start, end, n, at, record) -> {
+                    if (n != number) return true;
+                    hit[0] = recordText(record);
+                    return false;
+                });
+                if (hit[0] != null) return hit[0];
+            }
+        }
+        return null;
+    }
+
+    /** The n newest records in sealed segments, oldest first. */
+    public synchronized List<String> last(int n) throws IOException {
+        LinkedList<String> out = new LinkedList<>();
+        for (int i = segments.size() - 1; i >= 0 && out.size() < n; i--) {
+            Segment s = segments.get(i);
+            long[] blocks = blocksOf(s);
+            for (int b = blocks.length - BLOCK_LONGS; b >= 0 && out.size() < n; b -= BLOCK_LONGS) {
+                List<String> block = new ArrayList<>();
+                readBlock(s, blocks, b, false, (start, end, num, at, record) -> block.add(recordText(record)));
+                for (int k = block.size() - 1; k >= 0 && out.size() < n; k--) out.addFirst(block.get(k));
+            }
+        }
+        return out;
+    }
+
+    /** Records in sealed segments with fromMillis <= orderedAt < toMillis, in log order. */
+    public synchronized List<String> between(long fromMillis, long toMillis) throws IOException {
+        List<String> out = new ArrayList<>();
+        if (fromMillis >= toMillis) return out;
+        for (Segment s : segments) {
+            if (s.orders >= 0 && (s.orders == 0 || s.last < fromMillis || s.first >= toMillis)) continue;
+            long[] blocks = blocksOf(s);
+            for (int b = 0; b < blocks.length; b += BLOCK_LONGS) {
+                if (blocks[b + 5] < fromMillis || blocks[b + 4] >= toMillis) continue;
+                readBlock(s, blocks, b, true, (start, end, num, at, record) -> {
+                    if (at >= fromMillis && at < toMillis) out.add(recordText(record));
+                    return true;
+                });
+            }
+        }
+        return out;
+    }
+
+    /** Calls reader with every sealed segment, archived ones decompressed, oldest first. */
+    public synchronized void readSealed(SegmentReader reader) throws IOException {
+        for (Segment s : segments) {
+            try (InputStream in = openAt(s, 0)) {
+                reader.read(in);
+            }
+        }
+    }
+
+    private void readBlock(Segment s, long[] blocks, int b, boolean times, Sink sink) throws IOException {
+        try (InputStream in = openAt(s, blocks[b])) {
+            scan(in, blocks[b], blocks[b + 1], times, sink);
+        }
+    }
+
+    // The sparse index of s from its file; until the background thread has written that
+    // (or if it is damaged) the segment is scanned for one, kept in memory only
+    private long[] blocksOf(Segment s) throws IOException {
+        if (s.blocks != null) return s.blocks;
+        Path sparse = sparseOf(s);
+        try {
+            if (s.orders >= 0) return s.blocks = readSparse(sparse);
+        } catch (IOException e) {
+            System.out.println("Unable to read sparse index " + sparse + ", scanning the segment: " + e.getMessage());
+        }
+        long[] blocks = buildBlocks(s);
+        if (s.orders >= 0) s.blocks = blocks;
+        return blocks;
+    }
+
+    private String recordText(byte[] record) {
+        if (format == OrderCodec.Format.BINARY) return OrderCodec.decode(ByteBuffer.wrap(record)).toString().trim();
+        String text = new String(record, StandardCharsets.UTF_8);
+        int body = text.indexOf('\n');
+        return body < 0 ? "" : text.substring(body + 1).trim();
+    }
+
+    // Stream over the uncompressed bytes of s from offset on
+    private InputStream openAt(Segment s, long offset) throws IOException {
+        if (s.archived) {
+            InputStream in = new GZIPInputStream(Files.newInputStream(archiveOf(s)), 1 << 16);
+            try {
+                in.skipNBytes(offset);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return new BufferedInputStream(in, 1 << 16);
+        }
+        FileChannel ch = FileChannel.open(fileOf(s), StandardOpenOption.READ);
+        ch.position(offset);
+        return new BufferedInputStream(Channels.newInputStream(ch), 1 << 16);
+    }
+
+    // ---- record scanning ----
+
+    // Walks the records in [from, to) of a segment stream positioned at from, a record start
+    // or 0. Without times, text records are passed orderedAt 0 (parsing dates is the slow part).
+    private void scan(InputStream in, long from, long to, boolean times, Sink sink) throws IOException {
+        if (format == OrderCodec.Format.BINARY) scanBinary(in, from, to, sink);
+        else scanText(in, from, to, times, sink);
+    }
+
+    private static void scanBinary(InputStream stream, long pos, long to, Sink sink) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (pos < OrderCodec.HEADER_BYTES) {
+            in.skipNBytes(OrderCodec.HEADER_BYTES - pos);
+            pos = OrderCodec.HEADER_BYTES;
+        }
+        while (pos < to) {
+            byte[] payload;
+            try {
+                int n = in.readInt();
+                if (n < 0) return;
+                payload = new byte[n];
+                in.readFully(payload);
+            } catch (EOFException e) {
+                return; // torn tail
+            }
+            ByteBuffer buf = ByteBuffer.wrap(payload);
+            long number = OrderCodec.getVarLong(buf);
+            long at = OrderCodec.getVarLong(buf);
+            long end = pos + 4 + payload.length;
+            if (!sink.accept(pos, end, number, at, payload)) return;
+            pos = end;
+        }
+    }
+
+    private static void scanText(InputStream in, long pos, long to, boolean times, Sink sink) throws IOException {
+        SimpleDateFormat dates = times ? OrderCodec.orderDateFormat() : null;
+        LineReader lines = new LineReader(in);
+        byte[] record = new byte[512];
+        int size = 0;
+        long start = -1, number = -1, at = 0;
+        while (true) {
+            boolean eof = pos >= to || lines.next() == 0;
+            String text = eof ? null : lines.text();
+            if (eof || text.equals(OrderStore.SEPARATOR)) {
+                if (start >= 0 && number >= 0 && !sink.accept(start, pos, number, at, Arrays.copyOf(record, size))) {
+                    return;
+                }
+                if (eof) return;
+                start = pos;
+                number = -1;
+                at = 0;
+                size = 0;
+            } else if (text.startsWith("OrderId: ")) {
+                number = OrderIdGenerator.parse(text.substring("OrderId: ".length()).trim());
+            } else if (times && text.startsWith("Date: ")) {
+                try {
+                    at = dates.parse(text.substring("Date: ".length())).getTime();
+                } catch (ParseException e) {
+                    at = 0;
+                }
+            }
+            if (start >= 0) {
+                if (size + lines.length > record.length) record = Arrays.copyOf(record, Math.max(record.length * 2, size + lines.length));
+                System.arraycopy(lines.line, 0, record, size, lines.length);
+                size += lines.length;
+            }
+            pos += lines.length;
+        }
+    }
+
+    // Splits a stream into lines (each keeping its '\n') through a buffer of its own, without
+    // the per-byte locking of BufferedInputStream.read()
+    private static final class LineReader {
+        private final InputStream in;
+        private final byte[] buf = new byte[1 << 16];
+        private int pos, limit;
+        byte[] line = new byte[256];
+        int length;
+
+        LineReader(InputStream in) { this.in = in; }
+
+        // Reads the next line into line; returns its length, 0 at end of stream
+        int next() throws IOException {
+            length = 0;
+            while (true) {
+                if (pos == limit) {
+                    limit = Math.max(in.read(buf), 0);
+                    pos = 0;
+                    if (limit == 0) return length;
+                }
+                int i = pos;
+                while (i < limit && buf[i] != '\n') i++;
+                boolean complete = i < limit;
+                if (complete) i++;
+                if (length + i - pos > line.length) line = Arrays.copyOf(line, Math.max(line.length * 2, length + i - pos));
+                System.arraycopy(buf, pos, line, length, i - pos);
+                length += i - pos;
+                pos = i;
+                if (complete) return length;
+            }
+        }
+
+        String text() {
+            return new String(line, 0, length, StandardCharsets.UTF_8).trim();
+        }
+    }
+
+    // ---- files ----
+
+    private String name(Segment s) {
+        return String.format("%020d", s.base) + (format == OrderCodec.Format.BINARY ? ".bin" : ".txt");
+    }
+
+    private Path fileOf(Segment s) { return dir.resolve(name(s)); }
+
+    private Path archiveOf(Segment s) { return dir.resolve(name(s) + ".gz"); }
+
+    private Path sparseOf(Segment s) { return dir.resolve(String.format("%020d", s.base) + ".sparse"); }
+
+    private long firstRecord() {
+        return format == OrderCodec.Format.BINARY ? OrderCodec.HEADER_BYTES : 0;
+    }
+
+    private void createActive() throws IOException {
+        if (format == OrderCodec.Format.BINARY) OrderCodec.ensureHeader(ordersFile);
+        else if (Files.notExists(ordersFile)) Files.createFile(ordersFile);
+    }
+
+    // Finishes what a crash may have left half done: the move of a sealed file, an archive's cleanup
+    private void recover() throws IOException {
+        for (Segment s : segments) {
+            Path plain = fileOf(s);
+            if (s.archived) {
+                if (Files.notExists(archiveOf(s))) throw new IOException("Missing order archive " + archiveOf(s));
+                Files.deleteIfExists(plain);
+            } else if (Files.notExists(plain)) {
+                if (s != segments.get(segments.size() - 1) || Files.notExists(ordersFile)) {
+                    throw new IOException("Missing order segment " + plain);
+                }
+                long size = Files.size(ordersFile);
+                if (size != s.length) {
+                    throw new IOException(ordersFile + " holds " + size + " bytes, the segment it was sealed as "
+                            + s.length);
+                }
+                Files.move(ordersFile, plain, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        createActive();
+    }
+
+    /*
+     * One line per entry: "active <base>", then "segment <base> <length> <orders> <first
+     * millis> <last millis> sealed|archived" per sealed segment, oldest first (orders -1
+     * until indexed). Replaced as a whole through a temp file.
+     */
+    private void readManifest() throws IOException {
+        Path manifest = dir.resolve(MANIFEST);
+        if (Files.notExists(manifest)) return;
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            String[] f = line.trim().split("\\s+");
+            if (f[0].equals("active")) {
+                activeBase = parseField(f, 1, manifest);
+            } else if (f[0].equals("segment")) {
+                Segment s = new Segment(parseField(f, 1, manifest), parseField(f, 2, manifest));
+                s.orders = parseField(f, 3, manifest);
+                s.first = parseField(f, 4, manifest);
+                s.last = parseField(f, 5, manifest);
+                s.archived = f.length > 6 && f[6].equals("archived");
+                segments.add(s);
+            }
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("active ").append(activeBase).append('\n');
+        for (Segment s : segments) {
+            sb.append("segment ").append(s.base).append(' ').append(s.length).append(' ').append(s.orders)
+                    .append(' ').append(s.first).append(' ').append(s.last)
+                    .append(s.archived ? " archived" : " sealed").append('\n');
+        }
+        replace(dir.resolve(MANIFEST), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long parseField(String[] f, int i, Path file) throws IOException {
+        try {
+            return Long.parseLong(f[i]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IOException(file + ": bad line \"" + String.join(" ", f) + "\"");
+        }
+    }
+
+    private static long[] readSparse(Path file) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buf.remaining() < 8 || buf.getInt() != SPARSE_MAGIC) throw new IOException("not a sparse index");
+        int blocks = buf.getInt();
+        if (blocks < 0 || buf.remaining() != blocks * BLOCK_LONGS * 8L) throw new IOException("truncated");
+        long[] out = new long[blocks * BLOCK_LONGS];
+        buf.asLongBuffer().get(out);
+        return out;
+    }
+
+    private static void writeSparse(Path file, long[] blocks) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8 + blocks.length * 8);
+        buf.putInt(SPARSE_MAGIC).putInt(blocks.length / BLOCK_LONGS);
+        buf.asLongBuffer().put(blocks);
+        replace(file, buf.array());
+    }
+
+    private static void replace(Path file, byte[] bytes) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(false);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Stops the background thread, letting a roll or compaction in progress finish. */
+    @Override
+    public void close() {
+        ScheduledExecutorService t;
+        synchronized (this) {
+            t = timer;
+        }
+        if (t == null) return;
+        t.shutdown();
+        try {
+            t.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/*
+ * Random-access reader over the orders file (text or binary, see OrderCodec).
+ * - A sidecar index ("<orders file>.idx") holds one fixed-width entry per order:
+ *   order number, orderedAt millis, file offset of the record's "----" line
+ * - Lookups by id, "last N" and date ranges search the memory-mapped index and then
+ *   map just the window of the orders file that holds each record
+ * - On open, any records written after the last indexed one (or the whole file when
+ *   there is no index yet) are scanned once and indexed
+ *
+ * Entries are appended in roughly file order; concurrent checkouts can swap
+ * neighbours, so searches look SLACK entries either side of a binary-search hit and
+ * no further: an unknown id costs a bounded lookup, never a scan of the whole index.
+ */
+class OrderStore implements Closeable {
+    static final String SEPARATOR = "----";
+
+    private static final int ENTRY_BYTES = 24;
+    private static final int SLACK = 1024;
+    static final int MAX_LAST = 1000;
+    private static final int READ_WINDOW = 4096;
+    private static final long MAX_MAP = (Integer.MAX_VALUE / ENTRY_BYTES) * (long) ENTRY_BYTES;
+
+    private final Path dataFile;
+    private final OrderCodec.Format format;
+    private FileChannel data;
+    private FileChannel index;
+    private long entries;
+
+    private OrderStore(Path dataFile, OrderCodec.Format format, FileChannel data, FileChannel index)
+            throws IOException {
+        this.dataFile = dataFile;
+        this.format = format;
+        this.data = data;
+        this.index = index;
+        this.entries = index.size() / ENTRY_BYTES;
+        index.truncate(entries * ENTRY_BYTES); // drop a torn trailing entry
+    }
+
+    static Path indexFileFor(Path dataFile) {
+        return dataFile.resolveSibling(dataFile.getFileName() + ".idx");
+    }
+
+    static OrderStore open(Path dataFile) throws IOException {
+        return open(dataFile, OrderCodec.Format.TEXT);
+    }
+
+    static OrderStore open(Path dataFile, OrderCodec.Format format) throws IOException {
+        if (format == OrderCodec.Format.BINARY) OrderCodec.ensureHeader(dataFile);
+        else if (Files.notExists(dataFile)) Files.createFile(dataFile);
+        FileChannel data = FileChannel.open(dataFile, StandardOpenOption.READ);
+        FileChannel index = FileChannel.open(indexFileFor(dataFile), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        OrderStore store = new OrderStore(dataFile, format, data, index);
+        store.catchUp();
+        return store;
+    }
+
+    /**
+     * Starts over on a new data file at the same path, e.g. once OrderSegments has rolled
+     * the old one away: drops every entry and indexes whatever the new file holds.
+     */
+    public synchronized void reopen() throws IOException {
+        close();
+        if (format == OrderCodec.Format.BINARY) OrderCodec.ensureHeader(dataFile);
+        else if (Files.notExists(dataFile)) Files.createFile(dataFile);
+        data = FileChannel.open(dataFile, StandardOpenOption.READ);
+        index = FileChannel.open(indexFileFor(dataFile), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        entries = 0;
+        catchUp();
+    }
+
+    /** Records that the order with this number was written at offset. */
+    public synchronized void add(long orderNumber, long orderedAt, long offset) throws IOException {
+        ByteBuffer e = ByteBuffer.allocate(ENTRY_BYTES);
+        e.putLong(orderNumber).putLong(orderedAt).putLong(offset).flip();
+        long pos = entries * ENTRY_BYTES;
+        while (e.hasRemaining()) pos += index.write(e, pos);
+        entries++;
+    }
+
+    public synchronized long count() {
+        return entries;
+    }
+
+    /** The record for "ORD…" id, or null if it is not in the file. */
+    public synchronized String find(String orderId) throws IOException {
+        long number = OrderIdGenerator.parse(orderId);
+        if (number < 0 || entries == 0) return null;
+        Entries idx = mapIndex();
+        long hit = lowerBound(idx, 0, number);
+        for (long i = Math.max(0, hit - SLACK); i < Math.min(entries, hit + SLACK); i++) {
+            if (idx.number(i) == number) return readRecord(idx.offset(i));
+        }
+        return null;
+    }
+
+    /** The n (at most MAX_LAST) most recently written records, oldest first. */
+    public synchronized List<String> last(int n) throws IOException {
+        List<String> out = new ArrayList<>();
+        if (n <= 0 || entries == 0) return out;
+        Entries idx = mapIndex();
+        long[] offsets = new long[(int) Math.min(Math.min(n, MAX_LAST), entries)];
+        for (int i = 0; i < offsets.length; i++) offsets[i] = idx.offset(entries - offsets.length + i);
+        Arrays.sort(offsets);
+        for (long off : offsets) out.add(readRecord(off));
+        return out;
+    }
+
+    /** Records with fromMillis <= orderedAt < toMillis, in file order. */
+    public synchronized List<String> between(long fromMillis, long toMillis) throws IOException {
+        List<String> out = new ArrayList<>();
+        if (entries == 0 || fromMillis >= toMillis) return out;
+        Entries idx = mapIndex();
+        long start = Math.max(0, lowerBound(idx, 1, fromMillis) - SLACK);
+        long end = Math.min(entries, lowerBound(idx, 1, toMillis) + SLACK);
+        long[] offsets = new long[16];
+        int count = 0;
+        for (long i = start; i < end; i++) {
+            long at = idx.time(i);
+            if (at >= fromMillis && at < toMillis) {
+                if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+                offsets[count++] = idx.offset(i);
+            }
+        }
+        Arrays.sort(offsets, 0, count);
+        for (int i = 0; i < count; i++) out.add(readRecord(offsets[i]));
+        return out;
+    }
+
+    // First entry whose field (0 = number, 1 = time) is >= key, assuming near-sorted entries
+    private long lowerBound(Entries idx, int field, long key) {
+        long lo = 0, hi = entries;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            long v = field == 0 ? idx.number(mid) : idx.time(mid);
+            if (v < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Maps the record starting at offset, growing the window until the next separator line is in view
+    String readRecord(long offset) throws IOException {
+        if (format == OrderCodec.Format.BINARY) {
+            ByteBuffer len = data.map(FileChannel.MapMode.READ_ONLY, offset, 4);
+            ByteBuffer payload = data.map(FileChannel.MapMode.READ_ONLY, offset + 4, len.getInt(0));
+            return OrderCodec.decode(payload).toString().trim();
+        }
+        long size = data.size();
+        long window = Math.min(READ_WINDOW, size - offset);
+        while (true) {
+            MappedByteBuffer buf = data.map(FileChannel.MapMode.READ_ONLY, offset, window);
+            int bodyStart = nextLine(buf, 0);
+            int end = bodyStart < 0 ? -1 : findSeparatorLine(buf, bodyStart);
+            boolean atEof = offset + window == size;
+            if (end >= 0 || atEof || window >= Integer.MAX_VALUE) {
+                if (bodyStart < 0) return "";
+                if (end < 0) end = buf.limit();
+                while (end > bodyStart && isSpace(buf.get(end - 1))) end--;
+                byte[] bytes = new byte[end - bodyStart];
+                buf.get(bodyStart, bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            window = Math.min(Math.min(window * 2, size - offset), Integer.MAX_VALUE);
+        }
+    }
+
+    // Start of the first line in buf at/after from that is exactly "----", or -1
+    private static int findSeparatorLine(ByteBuffer buf, int from) {
+        int line = from;
+        while (line >= 0 && line < buf.limit()) {
+            if (isSeparatorAt(buf, line)) return line;
+            line = nextLine(buf, line);
+        }
+        return -1;
+    }
+
+    private static boolean isSeparatorAt(ByteBuffer buf, int pos) {
+        int n = SEPARATOR.length();
+        if (pos + n > buf.limit()) return false;
+        for (int i = 0; i < n; i++) if (buf.get(pos + i) != '-') return false;
+        if (pos + n == buf.limit()) return false; // can't tell whether the line continues
+        byte after = buf.get(pos + n);
+        return after == '\n' || after == '\r';
+    }
+
+    private static int nextLine(ByteBuffer buf, int from) {
+        for (int i = from; i < buf.limit(); i++) if (buf.get(i) == '\n') return i + 1;
+        return -1;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == '\n' || b == '\r' || b == ' ';
+    }
+
+    private Entries mapIndex() throws IOException {
+        long bytes = entries * ENTRY_BYTES;
+        int parts = (int) ((bytes + MAX_MAP - 1) / MAX_MAP);
+        MappedByteBuffer[] maps = new MappedByteBuffer[parts];
+        for (int i = 0; i < parts; i++) {
+            long start = i * MAX_MAP;
+            maps[i] = index.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAX_MAP, bytes - start));
+        }
+        return new Entries(maps);
+    }
+
+    private static final class Entries {
+        private final MappedByteBuffer[] maps;
+        private final long perMap = MAX_MAP / ENTRY_BYTES;
+
+        Entries(MappedByteBuffer[] maps) { this.maps = maps; }
+
+        long number(long i) { return field(i, 0); }
+        long time(long i) { return field(i, 8); }
+        long offset(long i) { return field(i, 16); }
+
+        private long field(long i, int at) {
+            return maps[(int) (i / perMap)].getLong((int) (i % perMap) * ENTRY_BYTES + at);
+        }
+    }
+
+    // Indexes records appended after the last indexed one (e.g. a pre-existing orders.txt
+    // or a crash between writing an order and indexing it).
+    private void catchUp() throws IOException {
+        long from = 0;
+        boolean skipFirst = false;
+        if (entries > 0) {
+            Entries idx = mapIndex();
+            for (long i = Math.max(0, entries - SLACK); i < entries; i++) from = Math.max(from, idx.offset(i));
+            skipFirst = true;
+            if (from >= data.size()) {
+                // A record can't start at or past the end: the index is of a file since rolled away
+                index.truncate(0);
+                entries = 0;
+                from = 0;
+                skipFirst = false;
+            }
+        }
+        if (from >= data.size()) return;
+        if (format == OrderCodec.Format.BINARY) {
+            catchUpBinary(Math.max(from, OrderCodec.HEADER_BYTES), skipFirst);
+            return;
+        }
+
+        SimpleDateFormat dates = OrderCodec.orderDateFormat();
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        long pos = from, lineStart = from, recordStart = -1;
+        long number = -1, time = 0;
+        boolean eof = false;
+        while (!eof) {
+            chunk.clear();
+            int n = data.read(chunk, pos);
+            eof = n < 0;
+            int limit = Math.max(n, 0);
+            for (int i = 0; i <= limit; i++) {
+                if (i < limit && chunk.get(i) != '\n') {
+                    line.write(chunk.get(i));
+                    continue;
+                }
+                if (i == limit && !eof) break; // line continues in the next chunk
+                String text = line.toString(StandardCharsets.UTF_8).trim();
+                if (text.equals(SEPARATOR)) {
+                    if (recordStart >= 0 && number >= 0 && !(skipFirst && recordStart == from)) {
+                        add(number, time, recordStart);
+                    }
+                    recordStart = lineStart;
+                    number = -1;
+                    time = 0;
+                } else if (text.startsWith("OrderId: ")) {
+                    number = OrderIdGenerator.parse(text.substring("OrderId: ".length()).trim());
+                } else if (text.startsWith("Date: ")) {
+                    try {
+                        time = dates.parse(text.substring("Date: ".length())).getTime();
+                    } catch (ParseException e) {
+                        time = 0;
+                    }
+                }
+                line.reset();
+                lineStart = pos + i + 1;
+            }
+            pos += limit;
+        }
+        if (recordStart >= 0 && number >= 0 && !(skipFirst && recordStart == from)) {
+            add(number, time, recordStart);
+        }
+    }
+
+    private void catchUpBinary(long from, boolean skipFirst) throws IOException {
+        long pos = from, size = data.size();
+        ByteBuffer len = ByteBuffer.allocate(4);
+        while (pos + 4 <= size) {
+            len.clear();
+            while (len.hasRemaining() && data.read(len, pos + len.position()) > 0) { }
+            int n = len.getInt(0);
+            if (n < 0 || pos + 4 + n > size) break; // torn tail
+            if (!(skipFirst && pos == from)) {
+                ByteBuffer payload = data.map(FileChannel.MapMode.READ_ONLY, pos + 4, n);
+                long number = OrderCodec.getVarLong(payload);
+                add(number, OrderCodec.getVarLong(payload), pos);
+            }
+            pos += 4 + n;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            index.force(false);
+            index.close();
+        } finally {
+            data.close();
+        }
+    }
+}
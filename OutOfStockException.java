@@ -0,0 +1,15 @@
+/*
+ * Thrown by checkout when a cart line can no longer be reserved.
+ */
+class OutOfStockException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final transient CartItem item;
+
+    public OutOfStockException(CartItem item) {
+        super("Not enough stock for " + item.getProduct().getName());
+        this.item = item;
+    }
+
+    public CartItem getItem() { return item; }
+}
@@ -0,0 +1,111 @@
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/*
+ * In-memory product catalog.
+ * - Keeps products in insertion order for browsing
+ * - Looks products up by id through an IdIndex (open addressing over int arrays,
+ *   so lookups never box an Integer)
+ * - Browsing is paged by a cursor (a position in insertion order) or streamed
+ *   lazily, so a listing never has to materialize the whole catalog
+ */
+class ProductCatalog {
+    /** Told about every product added (or replaced) at a catalog position. */
+    interface Listener {
+        void added(int position, Product p);
+    }
+
+    private Product[] products;
+    private int size;
+    private final List<Listener> listeners = new ArrayList<>();
+
+    private final IdIndex index;
+
+    public ProductCatalog() {
+        this(16);
+    }
+
+    public ProductCatalog(int expectedSize) {
+        products = new Product[Math.max(expectedSize, 4)];
+        index = new IdIndex(expectedSize);
+    }
+
+    /** Adds a product, replacing any product that already has the same id. */
+    public void add(Product p) {
+        int position = index.putIfAbsent(p.getId(), size);
+        if (position >= 0) {
+            products[position] = p;
+        } else {
+            if (size == products.length) products = Arrays.copyOf(products, size * 2);
+            position = size;
+            products[size++] = p;
+        }
+        for (Listener l : listeners) l.added(position, p);
+    }
+
+    /** Grows the tables up front for a bulk load of about this many products. */
+    public void ensureCapacity(int expectedSize) {
+        if (expectedSize > products.length) products = Arrays.copyOf(products, expectedSize);
+        index.ensureCapacity(expectedSize);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public Product findById(int id) {
+        int position = index.get(id);
+        return position < 0 ? null : products[position];
+    }
+
+    public int size() { return size; }
+
+    public Product get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        return products[index];
+    }
+
+    /** Read-only view of the products in insertion order. */
+    public List<Product> all() {
+        return new AbstractList<Product>() {
+            @Override public Product get(int index) { return ProductCatalog.this.get(index); }
+            @Override public int size() { return size; }
+        };
+    }
+
+    /** One page of a listing; nextCursor is -1 on the last page. */
+    static final class Page {
+        final List<Product> items;
+        final int nextCursor;
+
+        Page(List<Product> items, int nextCursor) {
+            this.items = items;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    /**
+     * Up to pageSize products starting at cursor (0 for the first page). Products are only
+     * ever appended, so a cursor stays valid while the catalog grows.
+     */
+    public Page page(int cursor, int pageSize) {
+        if (cursor < 0) throw new IllegalArgumentException("cursor must be >= 0");
+        if (pageSize <= 0) throw new IllegalArgumentException("pageSize must be >= 1");
+        int end = (int) Math.min((long) cursor + pageSize, size);
+        List<Product> items = new ArrayList<>(Math.max(end - cursor, 0));
+        for (int i = cursor; i < end; i++) items.add(products[i]);
+        return new Page(items, end < size ? end : -1);
+    }
+
+    /** Lazy stream over the catalog in insertion order; nothing is copied up front. */
+    public Stream<Product> stream() {
+        return IntStream.range(0, size).mapToObj(this::get);
+    }
+
+    /** As stream(), starting at position from (a listing cursor). */
+    public Stream<Product> stream(int from) {
+        if (from < 0) throw new IllegalArgumentException("from must be >= 0");
+        return IntStream.range(from, size).mapToObj(this::get);
+    }
+}
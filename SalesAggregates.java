@@ -0,0 +1,371 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/*
+ * Running sales totals, kept up to date by checkout so "how much did we sell today" never
+ * rescans the orders file.
+ * - Per product: units and revenue; per calendar day (system time zone): orders and
+ *   revenue; and overall orders, units and revenue
+ * - Every figure is a LongAdder, so concurrent checkouts add to them without locking; a
+ *   product's or a day's counters are one ConcurrentHashMap lookup away, so each query is
+ *   a lookup and a sum, however many orders there are
+ * - Persisted next to the orders file as "<orders file>.sales" (see Snapshot): the totals
+ *   as of a journal offset, worked out from the journal alone. Startup loads it and adds
+ *   the orders recorded after that offset (OrderAnalytics over the tail); while running,
+ *   Checkpointer moves it forward together with the stock snapshot
+ */
+final class SalesAggregates {
+    private static final class ProductSales {
+        final LongAdder units = new LongAdder();
+        final LongAdder revenue = new LongAdder();
+    }
+
+    private static final class DaySales {
+        final LongAdder orders = new LongAdder();
+        final LongAdder revenue = new LongAdder();
+    }
+
+    // Bounds of the day most orders fall on, so placing an order rarely needs the zone rules
+    private static final class Day {
+        final long start, end;
+        final int epochDay;
+
+        Day(long start, long end, int epochDay) {
+            this.start = start;
+            this.end = end;
+            this.epochDay = epochDay;
+        }
+    }
+
+    private final ZoneId zone;
+    private final ConcurrentHashMap<Integer, ProductSales> products = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, DaySales> days = new ConcurrentHashMap<>();
+    private final LongAdder orders = new LongAdder();
+    private final LongAdder units = new LongAdder();
+    private final LongAdder revenue = new LongAdder();
+    private volatile Day current = new Day(1, 0, 0);
+
+    SalesAggregates() {
+        this(ZoneId.systemDefault());
+    }
+
+    SalesAggregates(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    /** Totals as recorded in snap. */
+    static SalesAggregates of(Snapshot snap) {
+        SalesAggregates s = new SalesAggregates();
+        s.orders.add(snap.orders);
+        s.units.add(snap.units);
+        s.revenue.add(snap.revenue);
+        Table p = snap.products;
+        for (int i = 0; i < p.size(); i++) {
+            ProductSales ps = s.product(p.keys[i]);
+            ps.units.add(p.a[i]);
+            ps.revenue.add(p.b[i]);
+        }
+        Table d = snap.days;
+        for (int i = 0; i < d.size(); i++) {
+            DaySales ds = s.day(d.keys[i]);
+            ds.orders.add(d.a[i]);
+            ds.revenue.add(d.b[i]);
+        }
+        return s;
+    }
+
+    /** Adds a placed order. */
+    public void record(Order order) {
+        long qty = 0;
+        for (CartItem ci : order.getItems()) {
+            ProductSales ps = product(ci.getProduct().getId());
+            ps.units.add(ci.getQty());
+            ps.revenue.add(ci.getItemTotal());
+            qty += ci.getQty();
+        }
+        DaySales ds = day(dayOf(order.getOrderedAt().getTime()));
+        ds.orders.increment();
+        ds.revenue.add(order.getTotal());
+        orders.increment();
+        units.add(qty);
+        revenue.add(order.getTotal());
+    }
+
+    public long orders() { return orders.sum(); }
+    public long units() { return units.sum(); }
+    public long revenue() { return revenue.sum(); }
+
+    public long unitsOf(int productId) {
+        ProductSales ps = products.get(productId);
+        return ps != null ? ps.units.sum() : 0;
+    }
+
+    public long revenueOf(int productId) {
+        ProductSales ps = products.get(productId);
+        return ps != null ? ps.revenue.sum() : 0;
+    }
+
+    public long ordersOn(long epochDay) {
+        DaySales ds = days.get((int) epochDay);
+        return ds != null ? ds.orders.sum() : 0;
+    }
+
+    public long revenueOn(long epochDay) {
+        DaySales ds = days.get((int) epochDay);
+        return ds != null ? ds.revenue.sum() : 0;
+    }
+
+    /** Today's date as an epoch day, in the zone orders are bucketed by. */
+    public long today() {
+        return dayOf(System.currentTimeMillis());
+    }
+
+    private ProductSales product(int id) {
+        ProductSales ps = products.get(id);
+        return ps != null ? ps : products.computeIfAbsent(id, k -> new ProductSales());
+    }
+
+    private DaySales day(int epochDay) {
+        DaySales ds = days.get(epochDay);
+        return ds != null ? ds : days.computeIfAbsent(epochDay, k -> new DaySales());
+    }
+
+    private int dayOf(long millis) {
+        Day d = current;
+        if (millis >= d.start && millis < d.end) return d.epochDay;
+        LocalDate date = Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+        d = new Day(date.atStartOfDay(zone).toInstant().toEpochMilli(),
+                date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(), (int) date.toEpochDay());
+        current = d;
+        return d.epochDay;
+    }
+
+    /**
+     * Loads the sales snapshot of ordersFile, adds the orders recorded after it and writes
+     * the result back; returns the totals. Without a usable snapshot the whole journal is read,
+     * rolled segments included.
+     */
+    static SalesAggregates recover(Path ordersFile, OrderCodec.Format format, ProductCatalog catalog) throws IOException {
+        Path file = Snapshot.fileFor(ordersFile);
+        Snapshot snap;
+        try {
+            snap = Snapshot.read(file);
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable sales snapshot, reading all orders: " + e.getMessage());
+            snap = null;
+        }
+        long base = OrderSegments.baseOf(ordersFile);
+        if (snap != null && snap.journalOffset > base + Files.size(ordersFile)) {
+            System.out.println("Sales snapshot is ahead of " + ordersFile + ", reading all orders");
+            snap = null;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (base > 0 && (snap == null || snap.journalOffset < base)) {
+            // The log has been rolled past the snapshot: count the sealed segments (archives
+            // too) it has not reached before the active file
+            snap = Snapshot.sealedAfter(snap, ordersFile, format, catalog, threads);
+        }
+        Snapshot next = Snapshot.advance(snap, ordersFile, base, format, catalog, threads);
+        next.write(file);
+        return of(next);
+    }
+
+    // ---- persistence ----
+
+    /*
+     * Sales totals as of a point in the orders journal: every order before journalOffset is
+     * counted, none after it. Layout: "SALE", version, journal offset, orders, units, revenue,
+     * product count, (id, units, revenue) sorted by id, day count, (epoch day, orders,
+     * revenue) sorted by day, then a CRC32 of everything before it. Written to a temp file
+     * and renamed over the old one, as InventorySnapshot.
+     */
+    static final class Snapshot {
+        private static final int MAGIC = 0x53414C45; // "SALE"
+        private static final int VERSION = 1;
+        private static final int HEADER = 4 + 4 + 8 * 4;
+
+        final long journalOffset;
+        final long orders;
+        final long units;
+        final long revenue;
+        final Table products;
+        final Table days;
+
+        Snapshot(long journalOffset, long orders, long units, long revenue, Table products, Table days) {
+            this.journalOffset = journalOffset;
+            this.orders = orders;
+            this.units = units;
+            this.revenue = revenue;
+            this.products = products;
+            this.days = days;
+        }
+
+        static Path fileFor(Path ordersFile) {
+            return ordersFile.resolveSibling(ordersFile.getFileName() + ".sales");
+        }
+
+        /**
+         * prev (nothing when null) plus the orders recorded in ordersFile after it, up to the
+         * last complete record; sealed segments prev has not reached are counted first.
+         */
+        static Snapshot advance(Snapshot prev, Path ordersFile, OrderCodec.Format format, ProductCatalog catalog,
+                int threads) throws IOException {
+            long base = OrderSegments.baseOf(ordersFile);
+            if (prev != null && prev.journalOffset < base) prev = sealedAfter(prev, ordersFile, format, catalog, threads);
+            return advance(prev, ordersFile, base, format, catalog, threads);
+        }
+
+        // prev plus the sealed segments after it (all of them when prev is null)
+        private static Snapshot sealedAfter(Snapshot prev, Path ordersFile, OrderCodec.Format format,
+                ProductCatalog catalog, int threads) throws IOException {
+            Snapshot[] s = { prev };
+            OrderSegments.forEachSealed(ordersFile, format, prev != null ? prev.journalOffset : 0, (f, segmentBase) ->
+                    s[0] = advance(s[0], f, segmentBase, format, catalog, threads));
+            return s[0];
+        }
+
+        // As above for a file starting at logical offset base (offsets count the rolled segments too)
+        private static Snapshot advance(Snapshot prev, Path ordersFile, long base, OrderCodec.Format format,
+                ProductCatalog catalog, int threads) throws IOException {
+            long from = prev != null ? Math.max(prev.journalOffset - base, 0) : 0;
+            OrderAnalytics.Report r = OrderAnalytics.run(ordersFile, format, catalog, from, threads);
+            Table products = Table.of(r::forEachProduct);
+            Table days = Table.of(r::forEachDay);
+            if (prev == null) return new Snapshot(base + r.end, r.orders, r.units, r.revenue, products, days);
+            return new Snapshot(base + r.end, prev.orders + r.orders, prev.units + r.units, prev.revenue + r.revenue,
+                    Table.merge(prev.products, products), Table.merge(prev.days, days));
+        }
+
+        /** The snapshot in file, or null if there is none. */
+        static Snapshot read(Path file) throws IOException {
+            if (Files.notExists(file)) return null;
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buf.remaining() < HEADER + 12 || buf.getInt() != MAGIC) throw new IOException(file + " is not a sales snapshot");
+            int version = buf.getInt();
+            if (version != VERSION) throw new IOException(file + ": unsupported sales snapshot version " + version);
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), 0, buf.capacity() - 4);
+            if ((int) crc.getValue() != buf.getInt(buf.capacity() - 4)) throw new IOException(file + " fails its checksum");
+            try {
+                long offset = buf.getLong();
+                long orders = buf.getLong(), units = buf.getLong(), revenue = buf.getLong();
+                Table products = Table.read(buf);
+                Table days = Table.read(buf);
+                if (buf.remaining() != 4) throw new IOException(file + " is truncated");
+                return new Snapshot(offset, orders, units, revenue, products, days);
+            } catch (RuntimeException e) {
+                throw new IOException(file + " is truncated", e);
+            }
+        }
+
+        void write(Path file) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER + products.bytes() + days.bytes() + 4);
+            buf.putInt(MAGIC).putInt(VERSION).putLong(journalOffset).putLong(orders).putLong(units).putLong(revenue);
+            products.write(buf);
+            days.write(buf);
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), 0, buf.position());
+            buf.putInt((int) crc.getValue());
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, buf.array());
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    // Two long columns per int key, sorted by key
+    static final class Table {
+        final int[] keys;
+        final long[] a;
+        final long[] b;
+
+        Table(int[] keys, long[] a, long[] b) {
+            this.keys = keys;
+            this.a = a;
+            this.b = b;
+        }
+
+        int size() { return keys.length; }
+
+        int bytes() { return 4 + keys.length * 20; }
+
+        static Table of(Consumer<OrderAnalytics.Entries> source) {
+            int[] n = new int[1];
+            source.accept((k, x, y) -> n[0]++);
+            long[] order = new long[n[0]];
+            int[] keys = new int[n[0]];
+            long[] a = new long[n[0]], b = new long[n[0]];
+            int[] i = new int[1];
+            source.accept((k, x, y) -> {
+                keys[i[0]] = k;
+                a[i[0]] = x;
+                b[i[0]] = y;
+                order[i[0]] = ((long) k << 32) | i[0];
+                i[0]++;
+            });
+            Arrays.sort(order);
+            Table t = new Table(new int[keys.length], new long[keys.length], new long[keys.length]);
+            for (int j = 0; j < order.length; j++) {
+                int at = (int) order[j];
+                t.keys[j] = keys[at];
+                t.a[j] = a[at];
+                t.b[j] = b[at];
+            }
+            return t;
+        }
+
+        // Sums of both tables, key by key
+        static Table merge(Table x, Table y) {
+            int[] keys = new int[x.size() + y.size()];
+            long[] a = new long[keys.length], b = new long[keys.length];
+            int i = 0, j = 0, n = 0;
+            while (i < x.size() || j < y.size()) {
+                if (j == y.size() || (i < x.size() && x.keys[i] < y.keys[j])) {
+                    keys[n] = x.keys[i];
+                    a[n] = x.a[i];
+                    b[n] = x.b[i++];
+                } else if (i == x.size() || y.keys[j] < x.keys[i]) {
+                    keys[n] = y.keys[j];
+                    a[n] = y.a[j];
+                    b[n] = y.b[j++];
+                } else {
+                    keys[n] = x.keys[i];
+                    a[n] = x.a[i] + y.a[j];
+                    b[n] = x.b[i++] + y.b[j++];
+                }
+                n++;
+            }
+            return new Table(Arrays.copyOf(keys, n), Arrays.copyOf(a, n), Arrays.copyOf(b, n));
+        }
+
+        static Table read(ByteBuffer buf) {
+            int n = buf.getInt();
+            if (n < 0 || n > buf.remaining() / 20) throw new IllegalStateException("bad count " + n);
+            Table t = new Table(new int[n], new long[n], new long[n]);
+            for (int i = 0; i < n; i++) {
+                t.keys[i] = buf.getInt();
+                t.a[i] = buf.getLong();
+                t.b[i] = buf.getLong();
+            }
+            return t;
+        }
+
+        void write(ByteBuffer buf) {
+            buf.putInt(keys.length);
+            for (int i = 0; i < keys.length; i++) buf.putInt(keys[i]).putLong(a[i]).putLong(b[i]);
+        }
+    }
+}
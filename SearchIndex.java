@@ -0,0 +1,297 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Full-text search over product name and desc.
+ * - Text is split into lowercase letter/digit tokens
+ * - Each term has a posting list in a plain int array: (catalog position << 2) | field bits,
+ *   kept sorted by position (products are indexed in catalog order as they are added)
+ * - Every query word matches as a prefix; all words must match (AND)
+ * - Results are ranked by where the words hit (name beats desc, whole word beats prefix),
+ *   then by catalog order
+ *
+ * The index follows the catalog through ProductCatalog.Listener. A product replaced under
+ * the same id keeps its old terms indexed too, so hits are re-checked before returning.
+ */
+class SearchIndex implements ProductCatalog.Listener {
+    private static final int IN_DESC = 1;
+    private static final int IN_NAME = 2;
+
+    private static final class Postings {
+        int[] docs = new int[2];
+        int size;
+
+        void add(int entry) {
+            int doc = entry >>> 2;
+            if (size > 0 && (docs[size - 1] >>> 2) >= doc) {
+                insertOrMerge(entry);
+                return;
+            }
+            if (size == docs.length) docs = Arrays.copyOf(docs, size * 2);
+            docs[size++] = entry;
+        }
+
+        // Out-of-order add (a replaced product): keep the list sorted and one entry per doc
+        private void insertOrMerge(int entry) {
+            int doc = entry >>> 2;
+            int lo = 0, hi = size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int d = docs[mid] >>> 2;
+                if (d < doc) lo = mid + 1;
+                else if (d > doc) hi = mid - 1;
+                else {
+                    docs[mid] |= entry & 3;
+                    return;
+                }
+            }
+            if (size == docs.length) docs = Arrays.copyOf(docs, size * 2);
+            System.arraycopy(docs, lo, docs, lo + 1, size - lo);
+            docs[lo] = entry;
+            size++;
+        }
+    }
+
+    private final ProductCatalog catalog;
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Indexes everything already in catalog and every product added afterwards. */
+    public SearchIndex(ProductCatalog catalog) {
+        this.catalog = catalog;
+        catalog.addListener(this);
+        for (int i = 0; i < catalog.size(); i++) added(i, catalog.get(i));
+    }
+
+    @Override
+    public void added(int position, Product p) {
+        Map<String, Integer> fields = new HashMap<>();
+        for (String t : tokenize(p.getName())) fields.merge(t, IN_NAME, (a, b) -> a | b);
+        for (String t : tokenize(p.getDesc())) fields.merge(t, IN_DESC, (a, b) -> a | b);
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Integer> e : fields.entrySet()) {
+                terms.computeIfAbsent(e.getKey(), k -> new Postings()).add((position << 2) | e.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The posting lists one query word expands to (one per dictionary term it prefixes)
+    private static final class Expansion {
+        int[][] lists = new int[4][];
+        int[] sizes = new int[4];
+        boolean[] exact = new boolean[4];
+        int count;
+        long total;
+
+        void add(Postings p, boolean isExact) {
+            if (count == lists.length) {
+                lists = Arrays.copyOf(lists, count * 2);
+                sizes = Arrays.copyOf(sizes, count * 2);
+                exact = Arrays.copyOf(exact, count * 2);
+            }
+            lists[count] = p.docs;
+            sizes[count] = p.size;
+            exact[count++] = isExact;
+            total += p.size;
+        }
+    }
+
+    /** Up to limit products matching every word of query, best first. */
+    public List<Product> search(String query, int limit) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty() || limit <= 0) return Collections.emptyList();
+
+        int[] docs;
+        int[] scores;
+        int count;
+        lock.readLock().lock();
+        try {
+            Expansion[] expansions = new Expansion[words.size()];
+            for (int w = 0; w < expansions.length; w++) {
+                String word = words.get(w);
+                Expansion x = new Expansion();
+                for (Map.Entry<String, Postings> e : terms.subMap(word, true, word + Character.MAX_VALUE, false).entrySet()) {
+                    x.add(e.getValue(), e.getKey().length() == word.length());
+                }
+                if (x.count == 0) return Collections.emptyList();
+                expansions[w] = x;
+            }
+            // Most selective word first, so the candidate set starts small
+            Arrays.sort(expansions, Comparator.comparingLong(x -> x.total));
+
+            docs = new int[(int) expansions[0].total];
+            scores = new int[docs.length];
+            count = union(expansions[0], docs, scores);
+            for (int k = 1; k < expansions.length && count > 0; k++) {
+                count = intersect(docs, scores, count, expansions[k]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return topResults(docs, scores, count, words, limit);
+    }
+
+    // Sorted, de-duplicated union of one word's expansions; returns the number of docs
+    private static int union(Expansion x, int[] docs, int[] scores) {
+        // (doc << 8 | weight) so one primitive sort orders by doc and keeps each hit's weight
+        long[] keyed = new long[docs.length];
+        int n = 0;
+        for (int l = 0; l < x.count; l++) {
+            int[] p = x.lists[l];
+            for (int i = 0; i < x.sizes[l]; i++) keyed[n++] = ((long) (p[i] >>> 2) << 8) | weight(p[i], x.exact[l]);
+        }
+        if (x.count > 1) Arrays.sort(keyed, 0, n);
+        int out = -1;
+        for (int i = 0; i < n; i++) {
+            int doc = (int) (keyed[i] >>> 8);
+            int score = (int) (keyed[i] & 0xFF);
+            if (out >= 0 && docs[out] == doc) {
+                scores[out] = Math.max(scores[out], score);
+            } else {
+                docs[++out] = doc;
+                scores[out] = score;
+            }
+        }
+        return out + 1;
+    }
+
+    // Keeps candidates that occur in at least one of the word's lists, adding the best weight
+    private static int intersect(int[] docs, int[] scores, int count, Expansion x) {
+        int[] best = new int[count];
+        for (int l = 0; l < x.count; l++) {
+            int[] p = x.lists[l];
+            int len = x.sizes[l];
+            // Probe with binary search when the list is much longer than the candidate set
+            boolean probe = (long) count * (32 - Integer.numberOfLeadingZeros(len)) < count + (long) len;
+            int j = 0;
+            for (int i = 0; i < count; i++) {
+                int doc = docs[i];
+                int hit;
+                if (probe) {
+                    hit = find(p, j, len, doc);
+                    if (hit >= 0) j = hit;
+                } else {
+                    while (j < len && (p[j] >>> 2) < doc) j++;
+                    hit = j < len && (p[j] >>> 2) == doc ? j : -1;
+                }
+                if (hit >= 0) best[i] = Math.max(best[i], weight(p[hit], x.exact[l]));
+            }
+        }
+        int out = 0;
+        for (int i = 0; i < count; i++) {
+            if (best[i] > 0) {
+                docs[out] = docs[i];
+                scores[out++] = scores[i] + best[i];
+            }
+        }
+        return out;
+    }
+
+    private static int find(int[] p, int from, int len, int doc) {
+        int lo = from, hi = len - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int d = p[mid] >>> 2;
+            if (d < doc) lo = mid + 1;
+            else if (d > doc) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private static int weight(int entry, boolean exact) {
+        int w = ((entry & IN_NAME) != 0 ? 4 : 0) + ((entry & IN_DESC) != 0 ? 1 : 0);
+        return exact ? w * 2 : w;
+    }
+
+    private List<Product> topResults(int[] docs, int[] scores, int count, List<String> words, int limit) {
+        // Bounded min-heap of (score, -position) packed into longs; the root is the weakest kept hit
+        int want = (int) Math.min((long) limit * 2, count); // head room for hits dropped by the re-check
+        long[] heap = new long[want];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            long key = ((long) scores[i] << 32) | (Integer.MAX_VALUE - docs[i]);
+            if (size < want) {
+                heap[size] = key;
+                siftUp(heap, size++);
+            } else if (key > heap[0]) {
+                heap[0] = key;
+                siftDown(heap, size);
+            }
+        }
+        long[] ranked = Arrays.copyOf(heap, size);
+        Arrays.sort(ranked);
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            long t = ranked[i];
+            ranked[i] = ranked[j];
+            ranked[j] = t;
+        }
+        List<Product> out = new ArrayList<>(Math.min(limit, ranked.length));
+        for (long key : ranked) {
+            if (out.size() == limit) break;
+            Product p = catalog.get(Integer.MAX_VALUE - (int) key);
+            if (matchesAll(p, words)) out.add(p);
+        }
+        return out;
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= heap[i]) return;
+            long t = heap[parent];
+            heap[parent] = heap[i];
+            heap[i] = t;
+            i = parent;
+        }
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int l = 2 * i + 1, r = l + 1, min = i;
+            if (l < size && heap[l] < heap[min]) min = l;
+            if (r < size && heap[r] < heap[min]) min = r;
+            if (min == i) return;
+            long t = heap[min];
+            heap[min] = heap[i];
+            heap[i] = t;
+            i = min;
+        }
+    }
+
+    private static boolean matchesAll(Product p, List<String> words) {
+        List<String> tokens = tokenize(p.getName());
+        tokens.addAll(tokenize(p.getDesc()));
+        for (String w : words) {
+            boolean hit = false;
+            for (String t : tokens) {
+                if (t.startsWith(w)) {
+                    hit = true;
+                    break;
+                }
+            }
+            if (!hit) return false;
+        }
+        return true;
+    }
+
+    /** Lowercase runs of letters and digits. */
+    static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) start = i;
+            else if (!word && start >= 0) {
+                out.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return out;
+    }
+}
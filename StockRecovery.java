@@ -0,0 +1,518 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.ToIntFunction;
+
+/*
+ * Rebuilds stock from the orders journal at startup.
+ * - Starts from the last InventorySnapshot (or, without one, from the catalog's own stock
+ *   levels and the start of the journal, rolled segments included) and takes every order
+ *   recorded after the snapshot's offset out of stock; a snapshot a roll has left behind
+ *   the active file is first moved over the sealed segments it has not reached
+ * - The journal tail is cut into chunks at record boundaries ("----" lines in orders.txt,
+ *   length prefixes in orders.bin) and chunks are parsed in parallel straight from the
+ *   mapped file, adding up quantity sold per product id; the per-chunk counts are merged
+ * - A new snapshot is written at the end of the journal, so the next recovery only
+ *   replays what was ordered since; while running, Checkpointer keeps moving it forward
+ * - When stock is kept in an existing InventoryTable it already takes in every recorded
+ *   order, so nothing is replayed: the snapshot is the table's levels at the journal end
+ *
+ * Text orders name products rather than id them; names are matched against the catalog
+ * (first product with the name wins) and unmatched lines are counted and ignored, as are
+ * records cut short by a crash. Stock never goes below zero.
+ */
+class StockRecovery {
+    private static final long MAX_CHUNK = 256L << 20;
+    private static final int WINDOW = 64 * 1024;
+
+    /** What a recovery did. */
+    static final class Result {
+        final long replayedFrom;  // journal offset of the snapshot used, -1 without one
+        final long replayedTo;    // journal offset the new snapshot covers
+        final long orders;
+        final long unmatched;     // order lines whose product is not in the catalog
+        final long nanos;
+
+        Result(long replayedFrom, long replayedTo, long orders, long unmatched, long nanos) {
+            this.replayedFrom = replayedFrom;
+            this.replayedTo = replayedTo;
+            this.orders = orders;
+            this.unmatched = unmatched;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            String from = replayedFrom < 0 ? "full journal" : "snapshot at byte " + replayedFrom;
+            String s = String.format("replayed %d orders (%s, %d bytes) in %.3f s", orders, from,
+                    replayedTo - Math.max(replayedFrom, 0), nanos / 1e9);
+            if (unmatched > 0) s += ", " + unmatched + " lines for unknown products";
+            return s;
+        }
+    }
+
+    /**
+     * Recovers stock for every product in catalog from ordersFile and writes a fresh
+     * snapshot. With apply false the products' stock is kept elsewhere and is already
+     * current (they are bound to an existing InventoryTable): it is left alone and written
+     * as the snapshot at the end of the journal.
+     */
+    public static Result recover(Path ordersFile, OrderCodec.Format format, ProductCatalog catalog, boolean apply)
+            throws IOException {
+        return recover(ordersFile, format, catalog, apply, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static Result recover(Path ordersFile, OrderCodec.Format format, ProductCatalog catalog, boolean apply,
+            int threads) throws IOException {
+        long start = System.nanoTime();
+        Path snapFile = InventorySnapshot.fileFor(ordersFile);
+        InventorySnapshot snap;
+        try {
+            snap = InventorySnapshot.read(snapFile);
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable stock snapshot, replaying all orders: " + e.getMessage());
+            snap = null;
+        }
+        long base = OrderSegments.baseOf(ordersFile);
+        if (snap != null && snap.journalOffset > base + Files.size(ordersFile)) {
+            System.out.println("Stock snapshot is ahead of " + ordersFile + ", replaying all orders");
+            snap = null;
+        }
+
+        if (!apply) {
+            InventorySnapshot current = levelsAt(base + Files.size(ordersFile), catalog, snap);
+            current.write(snapFile);
+            return new Result(snap != null ? snap.journalOffset : -1, current.journalOffset, 0, 0,
+                    System.nanoTime() - start);
+        }
+
+        // Nothing has been sold since startup yet, so the products' own stock is the base
+        InventorySnapshot prev = snap;
+        long orders = 0, unmatched = 0;
+        if (base > 0 && (snap == null || snap.journalOffset < base)) {
+            // The log has been rolled past the snapshot: replay the sealed segments (archives
+            // too) it has not reached before the active file
+            Replay sealed = sealedAfter(ordersFile, format, catalog, snap, Product::getStock, threads);
+            prev = sealed.snapshot;
+            orders = sealed.orders;
+            unmatched = sealed.unmatched;
+        }
+        Replay r = advance(ordersFile, base, format, catalog, prev, Product::getStock, threads);
+        if (apply) {
+            for (Product p : catalog.all()) p.setStock(r.snapshot.stockOf(p.getId(), p.getStock()));
+        }
+        r.snapshot.write(snapFile);
+        return new Result(snap != null ? snap.journalOffset : -1, r.snapshot.journalOffset, orders + r.orders,
+                unmatched + r.unmatched, System.nanoTime() - start);
+    }
+
+    /** A snapshot moved forward over a stretch of the journal. */
+    static final class Replay {
+        final InventorySnapshot snapshot;
+        final long orders;
+        final long unmatched;
+
+        Replay(InventorySnapshot snapshot, long orders, long unmatched) {
+            this.snapshot = snapshot;
+            this.orders = orders;
+            this.unmatched = unmatched;
+        }
+    }
+
+    /**
+     * Takes the orders recorded after prev (the whole journal when prev is null) out of
+     * stock. The result covers the journal up to its last complete record, so records still
+     * being appended are left for next time. Products prev does not know start from
+     * baseStock, which returns -1 for products to leave out; products only prev knows are
+     * carried over. If the log has been rolled since prev, the sealed segments prev has not
+     * reached are replayed first.
+     */
+    static Replay advance(Path ordersFile, OrderCodec.Format format, ProductCatalog catalog, InventorySnapshot prev,
+            ToIntFunction<Product> baseStock, int threads) throws IOException {
+        long base = OrderSegments.baseOf(ordersFile);
+        if (prev == null || prev.journalOffset >= base) {
+            return advance(ordersFile, base, format, catalog, prev, baseStock, threads);
+        }
+        Replay sealed = sealedAfter(ordersFile, format, catalog, prev, baseStock, threads);
+        Replay r = advance(ordersFile, base, format, catalog, sealed.snapshot, baseStock, threads);
+        return new Replay(r.snapshot, sealed.orders + r.orders, sealed.unmatched + r.unmatched);
+    }
+
+    // prev moved over the sealed segments after it (all of them when prev is null)
+    private static Replay sealedAfter(Path ordersFile, OrderCodec.Format format, ProductCatalog catalog,
+            InventorySnapshot prev, ToIntFunction<Product> baseStock, int threads) throws IOException {
+        Replay[] r = { new Replay(prev, 0, 0) };
+        OrderSegments.forEachSealed(ordersFile, format, prev != null ? prev.journalOffset : 0, (file, segmentBase) -> {
+            Replay next = advance(file, segmentBase, format, catalog, r[0].snapshot, baseStock, threads);
+            r[0] = new Replay(next.snapshot, r[0].orders + next.orders, r[0].unmatched + next.unmatched);
+        });
+        return r[0];
+    }
+
+    // As above for a file starting at logical offset base: snapshot offsets count the rolled
+    // segments of the order log too (see OrderSegments)
+    private static Replay advance(Path file, long base, OrderCodec.Format format, ProductCatalog catalog,
+            InventorySnapshot prev, ToIntFunction<Product> baseStock, int threads) throws IOException {
+        Sold sold;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long first = format == OrderCodec.Format.BINARY ? OrderCodec.HEADER_BYTES : 0;
+            long from = prev != null ? Math.max(prev.journalOffset - base, first) : first;
+            sold = replay(ch, format, catalog, from, ch.size(), threads);
+            sold.end += base;
+        }
+
+        int n = catalog.size();
+        int[] ids = new int[n + (prev != null ? prev.size() : 0)];
+        int[] stocks = new int[ids.length];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            Product p = catalog.get(i);
+            int level = prev != null ? prev.stockOf(p.getId(), -1) : -1;
+            if (level < 0) level = baseStock.applyAsInt(p);
+            if (level < 0) continue;
+            ids[count] = p.getId();
+            stocks[count++] = (int) Math.max(0, level - sold.get(p.getId()));
+        }
+        if (prev != null) {
+            for (int i = 0; i < prev.size(); i++) {
+                int id = prev.idAt(i);
+                if (catalog.findById(id) != null) continue;
+                ids[count] = id;
+                stocks[count++] = (int) Math.max(0, prev.stockAt(i) - sold.get(id));
+            }
+        }
+        ids = Arrays.copyOf(ids, count);
+        stocks = Arrays.copyOf(stocks, count);
+        sortById(ids, stocks);
+        return new Replay(new InventorySnapshot(sold.end, ids, stocks), sold.orders, sold.unmatched);
+    }
+
+    // The products' current stock as a snapshot at offset; products only prev knows are carried over
+    private static InventorySnapshot levelsAt(long offset, ProductCatalog catalog, InventorySnapshot prev) {
+        int n = catalog.size();
+        int[] ids = new int[n + (prev != null ? prev.size() : 0)];
+        int[] stocks = new int[ids.length];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            Product p = catalog.get(i);
+            ids[count] = p.getId();
+            stocks[count++] = p.getStock();
+        }
+        if (prev != null) {
+            for (int i = 0; i < prev.size(); i++) {
+                if (catalog.findById(prev.idAt(i)) != null) continue;
+                ids[count] = prev.idAt(i);
+                stocks[count++] = prev.stockAt(i);
+            }
+        }
+        ids = Arrays.copyOf(ids, count);
+        stocks = Arrays.copyOf(stocks, count);
+        sortById(ids, stocks);
+        return new InventorySnapshot(offset, ids, stocks);
+    }
+
+    // ---- replay ----
+
+    private static Sold replay(FileChannel ch, OrderCodec.Format format, ProductCatalog catalog,
+            long from, long to, int threads) throws IOException {
+        if (from >= to) return new Sold(from);
+        boolean binary = format == OrderCodec.Format.BINARY;
+        long[] bounds = binary ? binaryBounds(ch, from, to, threads) : textBounds(ch, from, to, threads);
+        NameIds names = binary ? null : new NameIds(catalog);
+        int chunks = bounds.length - 1;
+        if (chunks == 1) return parse(ch, bounds[0], bounds[1], binary, names);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(Math.max(threads, 1), chunks), r -> {
+            Thread t = new Thread(r, "stock-recovery");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Sold>> parts = new ArrayList<>(chunks);
+            for (int c = 0; c < chunks; c++) {
+                long a = bounds[c], b = bounds[c + 1];
+                parts.add(pool.submit(() -> parse(ch, a, b, binary, names)));
+            }
+            Sold total = new Sold(from);
+            for (Future<Sold> f : parts) total.merge(f.get());
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Stock recovery interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException("Stock recovery failed: " + cause, cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static int chunkCount(long bytes, int threads) {
+        return (int) Math.max(Math.min(Math.max(threads, 1), bytes / WINDOW + 1), (bytes + MAX_CHUNK - 1) / MAX_CHUNK);
+    }
+
+    // The chunking, line matching and NameIds below are shared with OrderAnalytics
+
+    // Chunk starts moved forward to the next "----" line; from is already a record start
+    static long[] textBounds(FileChannel ch, long from, long to, int threads) throws IOException {
+        int chunks = chunkCount(to - from, threads);
+        long[] bounds = new long[chunks + 1];
+        bounds[0] = from;
+        int n = 1;
+        for (int c = 1; c < chunks; c++) {
+            long at = Math.max(from + (to - from) * c / chunks, bounds[n - 1] + 1);
+            long next = separatorAfter(ch, at, to);
+            if (next >= to) break;
+            if (next > bounds[n - 1]) bounds[n++] = next;
+        }
+        bounds[n++] = to;
+        return Arrays.copyOf(bounds, n);
+    }
+
+    // Offset of the first line at or after at that is exactly the record separator
+    private static long separatorAfter(FileChannel ch, long at, long to) throws IOException {
+        long pos = at;
+        while (pos < to) {
+            int len = (int) Math.min(WINDOW + 8, to - pos);
+            MappedByteBuffer w = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            for (int i = 0; i < Math.min(WINDOW, len); i++) {
+                if (w.get(i) != '\n') continue;
+                int line = i + 1;
+                if (isSeparatorLine(w, line, len)) return pos + line;
+            }
+            pos += WINDOW;
+        }
+        return to;
+    }
+
+    static boolean isSeparatorLine(ByteBuffer w, int line, int limit) {
+        int end = line + 4;
+        if (end > limit) return false;
+        for (int k = line; k < end; k++) {
+            if (w.get(k) != '-') return false;
+        }
+        return end == limit || w.get(end) == '\n' || w.get(end) == '\r';
+    }
+
+    // Walks the length prefixes, starting a new chunk once a chunk's worth of bytes has passed
+    static long[] binaryBounds(FileChannel ch, long from, long to, int threads) throws IOException {
+        int chunks = chunkCount(to - from, threads);
+        long target = Math.max((to - from) / chunks, 1);
+        long[] bounds = new long[chunks + 1];
+        bounds[0] = from;
+        int n = 1;
+        long pos = from, mapStart = from;
+        MappedByteBuffer w = ch.map(FileChannel.MapMode.READ_ONLY, mapStart, Math.min(MAX_CHUNK, to - mapStart));
+        while (pos + 4 <= to) {
+            if (pos + 4 > mapStart + w.capacity()) {
+                mapStart = pos;
+                w = ch.map(FileChannel.MapMode.READ_ONLY, mapStart, Math.min(MAX_CHUNK, to - mapStart));
+            }
+            int len = w.getInt((int) (pos - mapStart));
+            if (len < 0 || pos + 4 + len > to) break; // torn tail
+            pos += 4 + len;
+            if (pos - bounds[n - 1] >= target && n < chunks && pos < to) bounds[n++] = pos;
+        }
+        bounds[n++] = pos;
+        return Arrays.copyOf(bounds, n);
+    }
+
+    private static Sold parse(FileChannel ch, long from, long to, boolean binary, NameIds names) throws IOException {
+        Sold sold = new Sold(from);
+        if (to <= from) return sold;
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        int end = binary ? parseBinary(buf, sold) : parseText(buf, names, sold);
+        sold.end = from + end;
+        return sold;
+    }
+
+    // Both parsers return where the last complete record ends, relative to buf
+    private static int parseBinary(MappedByteBuffer buf, Sold sold) {
+        buf.order(ByteOrder.BIG_ENDIAN);
+        int pos = 0, limit = buf.limit();
+        while (pos + 4 <= limit) {
+            int len = buf.getInt(pos);
+            int end = pos + 4 + len;
+            if (len < 0 || end > limit) break;
+            buf.position(pos + 4);
+            OrderCodec.getVarLong(buf); // order number
+            OrderCodec.getVarLong(buf); // orderedAt
+            int lines = (int) OrderCodec.getVarLong(buf);
+            for (int i = 0; i < lines; i++) {
+                int id = (int) OrderCodec.getVarLong(buf);
+                int qty = (int) OrderCodec.getVarLong(buf);
+                OrderCodec.getVarLong(buf); // unit price
+                int nameLength = (int) OrderCodec.getVarLong(buf);
+                buf.position(buf.position() + nameLength);
+                sold.add(id, qty);
+            }
+            sold.orders++;
+            pos = end;
+        }
+        return pos;
+    }
+
+    // Item lines are "<name> x <qty> = <amount>"; they only count once the record's Total line is seen
+    private static int parseText(MappedByteBuffer buf, NameIds names, Sold sold) {
+        int limit = buf.limit();
+        int[] pendingIds = new int[16];
+        int[] pendingQty = new int[16];
+        int pending = -1; // -1 outside a record
+        int pos = 0, complete = 0;
+        while (pos < limit) {
+            int end = pos;
+            while (end < limit && buf.get(end) != '\n') end++;
+            int s = pos, e = end;
+            pos = end + 1;
+            while (s < e && (buf.get(s) == ' ' || buf.get(s) == '\t')) s++;
+            while (e > s && (buf.get(e - 1) == ' ' || buf.get(e - 1) == '\r')) e--;
+            if (e == s) continue;
+            if (e - s == 4 && isSeparatorLine(buf, s, e)) {
+                pending = 0;
+            } else if (pending < 0 || startsWith(buf, s, e, "OrderId:") || startsWith(buf, s, e, "Date:")) {
+                continue;
+            } else if (startsWith(buf, s, e, "Total:")) {
+                for (int i = 0; i < pending; i++) {
+                    if (pendingIds[i] == 0) sold.unmatched++;
+                    else sold.add(pendingIds[i], pendingQty[i]);
+                }
+                sold.orders++;
+                pending = -1;
+                complete = Math.min(pos, limit);
+            } else {
+                int eq = lastIndexOf(buf, s, e, " = ");
+                int x = eq < 0 ? -1 : lastIndexOf(buf, s, eq, " x ");
+                if (x < 0) continue;
+                int qty = 0;
+                int q = x + 3;
+                while (q < eq && buf.get(q) == ' ') q++;
+                for (; q < eq; q++) {
+                    byte b = buf.get(q);
+                    if (b < '0' || b > '9' || qty > 100_000_000) break;
+                    qty = qty * 10 + (b - '0');
+                }
+                if (pending == pendingIds.length) {
+                    pendingIds = Arrays.copyOf(pendingIds, pending * 2);
+                    pendingQty = Arrays.copyOf(pendingQty, pending * 2);
+                }
+                pendingIds[pending] = names.idOf(buf, s, x);
+                pendingQty[pending++] = qty;
+            }
+        }
+        return complete;
+    }
+
+    static boolean startsWith(ByteBuffer buf, int from, int to, String prefix) {
+        if (to - from < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buf.get(from + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    static int lastIndexOf(ByteBuffer buf, int from, int to, String needle) {
+        outer:
+        for (int i = to - needle.length(); i >= from; i--) {
+            for (int k = 0; k < needle.length(); k++) {
+                if (buf.get(i + k) != needle.charAt(k)) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static void sortById(int[] ids, int[] stocks) {
+        long[] packed = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) packed[i] = ((long) ids[i] << 32) | (stocks[i] & 0xFFFFFFFFL);
+        Arrays.sort(packed);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (int) (packed[i] >> 32);
+            stocks[i] = (int) packed[i];
+        }
+    }
+
+    // ---- counts ----
+
+    // Quantity sold per product id, kept in the first column of a KeyTotals
+    private static final class Sold {
+        final KeyTotals counts = new KeyTotals();
+        long orders;
+        long unmatched;
+        long end; // journal offset just past the last complete record seen
+
+        Sold(long end) {
+            this.end = end;
+        }
+
+        void add(int id, long qty) {
+            counts.add(id, qty, 0);
+        }
+
+        long get(int id) {
+            return counts.a(id);
+        }
+
+        void merge(Sold other) {
+            counts.merge(other.counts);
+            orders += other.orders;
+            unmatched += other.unmatched;
+            end = Math.max(end, other.end);
+        }
+    }
+
+    // Product ids by UTF-8 name, looked up straight from mapped bytes without building Strings
+    static final class NameIds {
+        final byte[][] names;
+        final int[] ids;
+        final int mask;
+
+        NameIds(ProductCatalog catalog) {
+            int cap = Integer.highestOneBit(Math.max(catalog.size() * 2, 8) - 1) << 1;
+            names = new byte[cap][];
+            ids = new int[cap];
+            mask = cap - 1;
+            for (Product p : catalog.all()) {
+                byte[] name = p.getName().getBytes(StandardCharsets.UTF_8);
+                int i = hash(ByteBuffer.wrap(name), 0, name.length) & mask;
+                while (names[i] != null && !Arrays.equals(names[i], name)) i = (i + 1) & mask;
+                if (names[i] == null) {
+                    names[i] = name;
+                    ids[i] = p.getId();
+                }
+            }
+        }
+
+        /** Id of the product named by buf[from, to), or 0 if none. */
+        int idOf(ByteBuffer buf, int from, int to) {
+            int i = hash(buf, from, to) & mask;
+            while (names[i] != null) {
+                if (equals(names[i], buf, from, to)) return ids[i];
+                i = (i + 1) & mask;
+            }
+            return 0;
+        }
+
+        private static int hash(ByteBuffer buf, int from, int to) {
+            int h = 0x811C9DC5;
+            for (int i = from; i < to; i++) h = (h ^ (buf.get(i) & 0xFF)) * 0x01000193;
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean equals(byte[] name, ByteBuffer buf, int from, int to) {
+            if (name.length != to - from) return false;
+            for (int i = 0; i < name.length; i++) {
+                if (name[i] != buf.get(from + i)) return false;
+            }
+            return true;
+        }
+    }
+}
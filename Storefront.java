@@ -0,0 +1,511 @@
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * HTTP storefront: the console menu operations as a JSON API.
+ *
+ *   GET  /products?cursor=0&limit=50    browse one page; nextCursor is null on the last
+ *   GET  /search?q=usb+cable&limit=20   product search
+ *   POST /cart/add?productId=1&qty=2    add to cart
+ *   GET  /cart                          view cart
+ *   POST /cart/remove?productId=1       remove item
+ *   POST /checkout[?durable=true]       place the order; "saved" says whether it is in the
+ *                                       orders file yet, durable=true waits until it is
+ *   GET  /orders?last=10 | ?id=ORD...   past orders
+ *   GET  /carts/stats                   cart store counters (plain text)
+ *   GET  /metrics                       every counter and latency histogram (plain text)
+ *   GET  /sales?day=2026-10-16&productId=1  running sales totals: the day's (default today),
+ *                                       all time, and optionally one product's
+ *
+ * Amounts are in minor units (paise), as in Money. Each shopper has their own
+ * Cart in a CartStore, keyed by the "session" cookie (or an X-Session-Id header);
+ * a new session id is issued when a request has none. Requests run one per virtual thread when
+ * the JDK has them, otherwise on a cached thread pool.
+ */
+class Storefront {
+    private static final String SESSION_COOKIE = "session";
+    private static final String SESSION_HEADER = "X-Session-Id";
+    private static final long DURABLE_WAIT_SECONDS = 10;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ProductCatalog catalog;
+    private final SearchIndex search;
+    private final OrderStore orders;
+    private final OrderSegments orderLog;
+    private final AsyncOrderWriter orderWriter;
+    private final CartStore carts;
+    private final SalesAggregates sales;
+
+    private Storefront(HttpServer server, ExecutorService executor, ProductCatalog catalog, SearchIndex search,
+                       OrderStore orders, OrderSegments orderLog, AsyncOrderWriter orderWriter, CartStore carts,
+                       SalesAggregates sales) {
+        this.server = server;
+        this.executor = executor;
+        this.catalog = catalog;
+        this.search = search;
+        this.orders = orders;
+        this.orderLog = orderLog;
+        this.orderWriter = orderWriter;
+        this.carts = carts;
+        this.sales = sales;
+    }
+
+    /**
+     * orderLog (may be null) holds the orders rolled out of the orders file, see OrderSegments;
+     * orderWriter (may be null) is saving orders in the background, see AsyncOrderWriter.
+     */
+    static Storefront start(int port, ProductCatalog catalog, SearchIndex search, OrderStore orders,
+                            OrderSegments orderLog, AsyncOrderWriter orderWriter, SalesAggregates sales)
+            throws IOException {
+        // Small JSON responses otherwise sit in Nagle's buffer waiting for a delayed ACK (~40ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        ExecutorService executor = requestExecutor();
+        Storefront s = new Storefront(server, executor, catalog, search, orders, orderLog, orderWriter,
+                cartStore(catalog), sales);
+        server.createContext("/products", s.route("GET", "products", s::products));
+        server.createContext("/search", s.route("GET", "search", s::search));
+        server.createContext("/cart/add", s.route("POST", "cart_add", s::addToCart));
+        server.createContext("/cart/remove", s.route("POST", "cart_remove", s::removeFromCart));
+        server.createContext("/cart", s.route("GET", "cart", s::viewCart));
+        server.createContext("/checkout", s.route("POST", "checkout", s::checkout));
+        server.createContext("/orders", s.route("GET", "orders", s::orders));
+        server.createContext("/carts/stats", s.route("GET", "carts_stats", s::cartStats));
+        server.createContext("/metrics", s.route("GET", "metrics", s::metrics));
+        server.createContext("/sales", s.route("GET", "sales", s::sales));
+        server.setExecutor(executor);
+        server.start();
+        return s;
+    }
+
+    int port() { return server.getAddress().getPort(); }
+
+    void stop() {
+        server.stop(1);
+        executor.shutdown();
+        carts.close();
+    }
+
+    // -Dcarts.max (default 100000), -Dcarts.idleMinutes (default 30), -Dcarts.spillDir (default: no spill)
+    private static CartStore cartStore(ProductCatalog catalog) throws IOException {
+        int max = Integer.getInteger("carts.max", 100_000);
+        long idleMillis = TimeUnit.MINUTES.toMillis(Long.getLong("carts.idleMinutes", 30));
+        String spill = System.getProperty("carts.spillDir");
+        return new CartStore(catalog, max, idleMillis, spill == null ? null : Paths.get(spill));
+    }
+
+    // Virtual threads need JDK 21; look the factory up so the code still runs on older JDKs
+    private static ExecutorService requestExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "storefront-request");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // ---- handlers ----
+
+    private interface Handler {
+        Response handle(Request req) throws IOException;
+    }
+
+    // Each route records its latency as http_<name> and counts 5xx answers as http_<name>_errors,
+    // whether the handler returned one (e.g. 503 when the orders file is unavailable) or threw
+    private HttpHandler route(String method, String name, Handler handler) {
+        Metrics.Histogram latency = Metrics.histogram("http_" + name);
+        Metrics.Counter errors = Metrics.counter("http_" + name + "_errors");
+        return exchange -> {
+            long t0 = Metrics.now();
+            try {
+                Response res;
+                if (!exchange.getRequestMethod().equalsIgnoreCase(method)) {
+                    res = Response.error(405, "Use " + method);
+                } else {
+                    res = handler.handle(new Request(exchange));
+                }
+                if (res.status >= 500) errors.increment();
+                res.send(exchange);
+            } catch (RuntimeException | IOException e) {
+                errors.increment();
+                Response.error(500, String.valueOf(e.getMessage())).send(exchange);
+            } finally {
+                exchange.close();
+                latency.recordSince(t0);
+            }
+        };
+    }
+
+    private Response products(Request req) {
+        int cursor = req.intParam("cursor", 0);
+        int limit = req.intParam("limit", 50);
+        if (cursor < 0 || limit <= 0) return Response.error(400, "cursor must be >= 0 and limit >= 1");
+        // Written straight from the lazy catalog stream; no page list is built
+        Json json = new Json().beginObject().name("items").beginArray();
+        int[] count = { 0 };
+        catalog.stream(cursor).limit(Math.min(limit, 500)).forEach(p -> {
+            writeProduct(json, p);
+            count[0]++;
+        });
+        long next = (long) cursor + count[0];
+        json.endArray().name("nextCursor");
+        if (count[0] == 0 || next >= catalog.size()) json.value((String) null);
+        else json.value((int) next);
+        return Response.ok(json.endObject());
+    }
+
+    private Response search(Request req) {
+        String q = req.param("q");
+        if (q == null || q.trim().isEmpty()) return Response.error(400, "q is required");
+        Json json = new Json().beginArray();
+        for (Product p : search.search(q, Math.min(req.intParam("limit", 20), 500))) writeProduct(json, p);
+        return Response.ok(json.endArray());
+    }
+
+    private Response addToCart(Request req) {
+        int productId = req.intParam("productId", -1);
+        int qty = req.intParam("qty", 1);
+        Product p = Main.findProductById(productId);
+        if (p == null) return Response.error(404, "Product not found.");
+        if (qty <= 0) return Response.error(400, "Quantity must be >= 1");
+        if (qty > p.getStock()) return Response.error(409, "Not enough stock. Available: " + p.getStock());
+        Cart cart = req.cart();
+        synchronized (cart) {
+            cart.add(p, qty);
+            return req.withSession(Response.ok(writeCart(new Json(), cart)));
+        }
+    }
+
+    private Response viewCart(Request req) {
+        Cart cart = req.cart();
+        synchronized (cart) {
+            return req.withSession(Response.ok(writeCart(new Json(), cart)));
+        }
+    }
+
+    private Response removeFromCart(Request req) {
+        int productId = req.intParam("productId", -1);
+        Cart cart = req.cart();
+        synchronized (cart) {
+            cart.remove(productId);
+            return req.withSession(Response.ok(writeCart(new Json(), cart)));
+        }
+    }
+
+    private Response checkout(Request req) {
+        Cart cart = req.cart();
+        Order order;
+        synchronized (cart) {
+            if (cart.isEmpty()) return req.withSession(Response.error(400, "Cart is empty. Nothing to checkout."));
+            try {
+                order = Main.placeOrder(cart);
+            } catch (OutOfStockException e) {
+                return req.withSession(Response.error(409,
+                        "Stock changed. Cannot complete order for " + e.getItem().getProduct().getName()));
+            } catch (IOException e) {
+                return req.withSession(Response.error(503, "Unable to save order, cart unchanged: " + e.getMessage()));
+            }
+        }
+        // With durable=true the reply waits until the order is in the orders file
+        if ("true".equals(req.param("durable"))) {
+            try {
+                order.persisted().get(DURABLE_WAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                return req.withSession(Response.error(503, "Order " + order.getId()
+                        + " could not be saved and was cancelled: " + e.getCause().getMessage()));
+            } catch (TimeoutException e) {
+                return req.withSession(Response.error(503, "Order " + order.getId() + " was placed but is not saved yet."));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return req.withSession(Response.error(503, "Order " + order.getId() + " was placed but is not saved yet."));
+            }
+        }
+        CompletableFuture<Long> persisted = order.persisted();
+        Json json = new Json().beginObject()
+                .field("orderId", order.getId())
+                .field("total", order.getTotal())
+                .field("saved", persisted.isDone() && !persisted.isCompletedExceptionally())
+                .endObject();
+        return req.withSession(Response.ok(json));
+    }
+
+    private Response orders(Request req) throws IOException {
+        if (orders == null) return Response.error(503, "Order index is not available.");
+        if (orderWriter != null) orderWriter.flush(); // show orders still being saved too
+        List<String> found;
+        String id = req.param("id");
+        if (id != null) {
+            String record = orders.find(id);
+            if (record == null && orderLog != null) record = orderLog.find(OrderIdGenerator.parse(id));
+            if (record == null) {
+                String failure = Main.saveFailure(id);
+                if (failure != null) return Response.error(410, "Order " + id + " could not be saved and was cancelled: " + failure);
+                return Response.error(404, "Order not found.");
+            }
+            found = Collections.singletonList(record);
+        } else {
+            int last = Math.min(req.intParam("last", 10), OrderStore.MAX_LAST);
+            found = orders.last(last);
+            if (found.size() < last && orderLog != null) {
+                List<String> older = orderLog.last(last - found.size());
+                older.addAll(found);
+                found = older;
+            }
+        }
+        Json json = new Json().beginArray();
+        for (String record : found) json.value(record);
+        return Response.ok(json.endArray());
+    }
+
+    private Response cartStats(Request req) {
+        return Response.text(carts.stats());
+    }
+
+    // Plain-text scrape: every Metrics counter and histogram, then the cart store's counters
+    private Response metrics(Request req) {
+        return Response.text(Metrics.render() + carts.stats());
+    }
+
+    private Response sales(Request req) {
+        long day;
+        try {
+            String d = req.param("day");
+            day = d != null ? LocalDate.parse(d).toEpochDay() : sales.today();
+        } catch (DateTimeParseException e) {
+            return Response.error(400, "day must look like 2026-01-31");
+        }
+        Json json = new Json().beginObject()
+                .field("day", LocalDate.ofEpochDay(day).toString())
+                .field("dayOrders", sales.ordersOn(day))
+                .field("dayRevenue", sales.revenueOn(day))
+                .field("orders", sales.orders())
+                .field("units", sales.units())
+                .field("revenue", sales.revenue());
+        int productId = req.intParam("productId", -1);
+        if (productId >= 0) {
+            json.name("product").beginObject()
+                    .field("id", productId)
+                    .field("units", sales.unitsOf(productId))
+                    .field("revenue", sales.revenueOf(productId))
+                    .endObject();
+        }
+        return Response.ok(json.endObject());
+    }
+
+    private static void writeProduct(Json json, Product p) {
+        json.beginObject()
+                .field("id", p.getId())
+                .field("name", p.getName())
+                .field("desc", p.getDesc())
+                .field("price", p.getPrice())
+                .field("stock", p.getStock())
+                .endObject();
+    }
+
+    private static Json writeCart(Json json, Cart cart) {
+        json.beginObject().name("items").beginArray();
+        for (CartItem ci : cart.getItems()) {
+            json.beginObject()
+                    .field("productId", ci.getProduct().getId())
+                    .field("name", ci.getProduct().getName())
+                    .field("qty", ci.getQty())
+                    .field("itemTotal", ci.getItemTotal())
+                    .endObject();
+        }
+        return json.endArray().field("total", cart.total()).endObject();
+    }
+
+    // ---- plumbing ----
+
+    private final class Request {
+        private final HttpExchange exchange;
+        private final Map<String, String> query;
+        private String session;
+        private boolean newSession;
+
+        Request(HttpExchange exchange) {
+            this.exchange = exchange;
+            this.query = parseQuery(exchange.getRequestURI());
+        }
+
+        String param(String name) { return query.get(name); }
+
+        int intParam(String name, int fallback) {
+            String v = query.get(name);
+            if (v == null) return fallback;
+            try {
+                return Integer.parseInt(v.trim());
+            } catch (NumberFormatException e) {
+                return fallback;
+            }
+        }
+
+        Cart cart() {
+            return carts.get(session());
+        }
+
+        String session() {
+            if (session != null) return session;
+            session = exchange.getRequestHeaders().getFirst(SESSION_HEADER);
+            if (session == null) session = cookie(SESSION_COOKIE);
+            if (session == null || session.isEmpty()) {
+                session = UUID.randomUUID().toString();
+                newSession = true;
+            }
+            return session;
+        }
+
+        Response withSession(Response res) {
+            if (newSession) res.header("Set-Cookie", SESSION_COOKIE + "=" + session + "; Path=/; HttpOnly");
+            if (session != null) res.header(SESSION_HEADER, session);
+            return res;
+        }
+
+        private String cookie(String name) {
+            List<String> headers = exchange.getRequestHeaders().get("Cookie");
+            if (headers == null) return null;
+            for (String header : headers) {
+                for (String part : header.split(";")) {
+                    int eq = part.indexOf('=');
+                    if (eq > 0 && part.substring(0, eq).trim().equals(name)) return part.substring(eq + 1).trim();
+                }
+            }
+            return null;
+        }
+    }
+
+    private static Map<String, String> parseQuery(URI uri) {
+        Map<String, String> out = new HashMap<>();
+        String q = uri.getRawQuery();
+        if (q == null || q.isEmpty()) return out;
+        for (String pair : q.split("&")) {
+            int eq = pair.indexOf('=');
+            String k = eq < 0 ? pair : pair.substring(0, eq);
+            String v = eq < 0 ? "" : pair.substring(eq + 1);
+            out.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    private static final class Response {
+        final int status;
+        final byte[] body;
+        final Map<String, String> headers = new LinkedHashMap<>();
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+
+        static Response ok(Json json) { return new Response(200, json.toString()); }
+
+        static Response text(String body) {
+            return new Response(200, body).header("Content-Type", "text/plain; charset=utf-8");
+        }
+
+        static Response error(int status, String message) {
+            return new Response(status, new Json().beginObject().field("error", message).endObject().toString());
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        void send(HttpExchange exchange) throws IOException {
+            Headers h = exchange.getResponseHeaders();
+            h.set("Content-Type", "application/json; charset=utf-8");
+            for (Map.Entry<String, String> e : headers.entrySet()) h.set(e.getKey(), e.getValue());
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /** Minimal streaming JSON writer; commas are inserted automatically. */
+    static final class Json {
+        private final StringBuilder sb = new StringBuilder(256);
+        private boolean needComma;
+
+        Json beginObject() { comma(); sb.append('{'); needComma = false; return this; }
+        Json endObject() { sb.append('}'); needComma = true; return this; }
+        Json beginArray() { comma(); sb.append('['); needComma = false; return this; }
+        Json endArray() { sb.append(']'); needComma = true; return this; }
+
+        Json name(String name) {
+            comma();
+            string(name).append(':');
+            needComma = false;
+            return this;
+        }
+
+        Json field(String name, String value) { return name(name).value(value); }
+        Json field(String name, long value) { return name(name).value(value); }
+        Json field(String name, boolean value) { return name(name).value(value); }
+
+        Json value(String v) {
+            comma();
+            if (v == null) sb.append("null");
+            else string(v);
+            needComma = true;
+            return this;
+        }
+
+        Json value(long v) {
+            comma();
+            sb.append(v);
+            needComma = true;
+            return this;
+        }
+
+        Json value(boolean v) {
+            comma();
+            sb.append(v);
+            needComma = true;
+            return this;
+        }
+
+        private void comma() {
+            if (needComma) sb.append(',');
+        }
+
+        private StringBuilder string(String s) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                        else sb.append(c);
+                }
+            }
+            return sb.append('"');
+        }
+
+        @Override
+        public String toString() { return sb.toString(); }
+    }
+}
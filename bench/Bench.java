@@ -0,0 +1,733 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/*
+ * Micro-benchmarks for the shop's hot paths, with no dependencies beyond the JDK.
+ * - Each case is set up outside the timed region, calibrated to a batch size that
+ *   runs for ~10ms, warmed up, then measured over several iterations
+ * - Scores are average time per operation with a 99.9% confidence half-width
+ * - Results go to a JSON file (one object per case/parameter combination) so runs
+ *   can be diffed or plotted
+ *
+ * Build and run from the project root:
+ *   javac -d out *.java bench/*.java
+ *   java -cp out Bench [regex filter] [--quick] [--out bench-results.json]
+ */
+public class Bench {
+    static volatile long sink;
+
+    interface Body {
+        /** Runs the operation ops times. */
+        void run(long ops) throws Exception;
+    }
+
+    interface Setup {
+        Body create(Map<String, String> params) throws Exception;
+    }
+
+    interface Footprint {
+        /** Builds the structure whose retained heap is measured. */
+        Object build(Map<String, String> params) throws Exception;
+    }
+
+    static final class Case {
+        final String name;
+        final String unit;
+        final Map<String, String[]> params;
+        final Setup setup;
+        final Footprint footprint;
+
+        Case(String name, String unit, Map<String, String[]> params, Setup setup, Footprint footprint) {
+            this.name = name;
+            this.unit = unit;
+            this.params = params;
+            this.setup = setup;
+            this.footprint = footprint;
+        }
+    }
+
+    static final class Result {
+        final String name;
+        final Map<String, String> params;
+        final String unit;
+        final double score;
+        final double error;
+        final int samples;
+
+        Result(String name, Map<String, String> params, String unit, double score, double error, int samples) {
+            this.name = name;
+            this.params = params;
+            this.unit = unit;
+            this.score = score;
+            this.error = error;
+            this.samples = samples;
+        }
+    }
+
+    private static final List<Case> cases = new ArrayList<>();
+    private static final List<AutoCloseable> cleanup = new ArrayList<>();
+    private static int warmups = 5;
+    private static int iterations = 10;
+    private static long iterationNanos = TimeUnit.MILLISECONDS.toNanos(200);
+
+    public static void main(String[] args) throws Exception {
+        Pattern filter = null;
+        String out = "bench-results.json";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--quick")) {
+                warmups = 2;
+                iterations = 3;
+                iterationNanos = TimeUnit.MILLISECONDS.toNanos(50);
+            } else if (args[i].equals("--out") && i + 1 < args.length) {
+                out = args[++i];
+            } else {
+                filter = Pattern.compile(args[i]);
+            }
+        }
+
+        registerAll();
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Case c : cases) {
+                if (filter != null && !filter.matcher(c.name).find()) continue;
+                for (Map<String, String> params : combinations(c.params)) {
+                    Result r = measure(c, params);
+                    results.add(r);
+                    System.out.printf("%-32s %-36s %14.3f +- %10.3f %s%n", r.name, r.params, r.score, r.error, r.unit);
+                }
+            }
+        } finally {
+            closeAll();
+        }
+        Files.write(Paths.get(out), toJson(results).getBytes(StandardCharsets.UTF_8));
+        System.out.println("Wrote " + results.size() + " results to " + out);
+        System.exit(0);
+    }
+
+    static void closeLater(AutoCloseable c) {
+        cleanup.add(c);
+    }
+
+    // Closes and deletes what the fixtures opened so far
+    static void closeAll() throws Exception {
+        for (AutoCloseable c : cleanup) c.close();
+        cleanup.clear();
+    }
+
+    static void register(String name, String unit, Map<String, String[]> params, Setup setup) {
+        cases.add(new Case(name, unit, params, setup, null));
+    }
+
+    // Measures retained heap (MB) instead of time
+    static void registerFootprint(String name, Map<String, String[]> params, Footprint footprint) {
+        cases.add(new Case(name, "MB", params, null, footprint));
+    }
+
+    static Map<String, String[]> params(String... keyThenValues) {
+        Map<String, String[]> m = new LinkedHashMap<>();
+        for (String kv : keyThenValues) {
+            int eq = kv.indexOf('=');
+            m.put(kv.substring(0, eq), kv.substring(eq + 1).split(","));
+        }
+        return m;
+    }
+
+    static int intParam(Map<String, String> params, String name) {
+        return Integer.parseInt(params.get(name));
+    }
+
+    // ---- benchmarks ----
+
+    private static void registerAll() {
+        register("catalog.findById", "ns/op", params("catalogSize=10,10000,1000000"), p -> {
+            ProductCatalog catalog = catalog(intParam(p, "catalogSize"));
+            int[] ids = randomIds(catalog.size());
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) acc += catalog.findById(ids[(int) (i & (ids.length - 1))]).getStock();
+                sink = acc;
+            };
+        });
+        register("catalog.linearScan", "ns/op", params("catalogSize=10,10000,1000000"), p -> {
+            // What Main.findProductById did before the hash index
+            List<Product> products = new ArrayList<>(catalog(intParam(p, "catalogSize")).all());
+            int[] ids = randomIds(products.size());
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) {
+                    int id = ids[(int) (i & (ids.length - 1))];
+                    for (Product prod : products) {
+                        if (prod.getId() == id) {
+                            acc += prod.getStock();
+                            break;
+                        }
+                    }
+                }
+                sink = acc;
+            };
+        });
+
+        register("cart.addRemove", "ns/op", params("cartSize=1,10,1000"), p -> {
+            ProductCatalog catalog = catalog(intParam(p, "cartSize") + 1);
+            Cart cart = cart(catalog, intParam(p, "cartSize"));
+            Product extra = catalog.get(catalog.size() - 1);
+            return ops -> {
+                for (long i = 0; i < ops; i++) {
+                    cart.add(extra, 1);
+                    cart.remove(extra.getId());
+                }
+                sink = cart.total();
+            };
+        });
+        register("cart.total", "ns/op", params("cartSize=1,10,1000"), p -> {
+            Cart cart = cart(catalog(intParam(p, "cartSize")), intParam(p, "cartSize"));
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) acc += cart.total();
+                sink = acc;
+            };
+        });
+        register("cart.totalRecompute", "ns/op", params("cartSize=1,10,1000"), p -> {
+            // What Cart.total() did before the running total
+            Cart cart = cart(catalog(intParam(p, "cartSize")), intParam(p, "cartSize"));
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) {
+                    for (CartItem ci : cart.getItems()) acc += ci.getItemTotal();
+                }
+                sink = acc;
+            };
+        });
+
+        register("money.sum", "ns/op", params("type=long,double,BigDecimal", "lines=1000"), p -> {
+            int lines = intParam(p, "lines");
+            long[] minor = new long[lines];
+            double[] major = new double[lines];
+            BigDecimal[] decimal = new BigDecimal[lines];
+            Random rnd = new Random(42);
+            for (int i = 0; i < lines; i++) {
+                minor[i] = 100 + rnd.nextInt(500_000);
+                major[i] = minor[i] / 100.0;
+                decimal[i] = BigDecimal.valueOf(minor[i], 2);
+            }
+            int[] qty = new int[lines];
+            for (int i = 0; i < lines; i++) qty[i] = 1 + rnd.nextInt(5);
+            switch (p.get("type")) {
+                case "long":
+                    return ops -> {
+                        long t = 0;
+                        for (long o = 0; o < ops; o++) {
+                            t = 0;
+                            for (int i = 0; i < lines; i++) t = Money.plus(t, Money.times(minor[i], qty[i]));
+                        }
+                        sink = t;
+                    };
+                case "double":
+                    return ops -> {
+                        double t = 0;
+                        for (long o = 0; o < ops; o++) {
+                            t = 0;
+                            for (int i = 0; i < lines; i++) t += major[i] * qty[i];
+                        }
+                        sink = (long) t;
+                    };
+                default:
+                    return ops -> {
+                        BigDecimal t = BigDecimal.ZERO;
+                        for (long o = 0; o < ops; o++) {
+                            t = BigDecimal.ZERO;
+                            for (int i = 0; i < lines; i++) t = t.add(decimal[i].multiply(BigDecimal.valueOf(qty[i])));
+                        }
+                        sink = t.unscaledValue().longValue();
+                    };
+            }
+        });
+
+        register("order.createAndToString", "ns/op", params("cartSize=1,10,100"), p -> {
+            Cart cart = cart(catalog(intParam(p, "cartSize")), intParam(p, "cartSize"));
+            List<CartItem> items = new ArrayList<>(cart.getItems());
+            long total = cart.total();
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) acc += new Order(items, total).toString().length();
+                sink = acc;
+            };
+        });
+
+        register("codec.encode", "ns/op", params("cartSize=1,10,100"), p -> {
+            Order order = order(intParam(p, "cartSize"));
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) acc += OrderCodec.encode(order).length;
+                sink = acc;
+            };
+        });
+        register("codec.decode", "ns/op", params("cartSize=1,10,100"), p -> {
+            byte[] record = OrderCodec.encode(order(intParam(p, "cartSize")));
+            ByteBuffer buf = ByteBuffer.wrap(record);
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) {
+                    buf.position(4);
+                    acc += OrderCodec.decode(buf).getTotal();
+                }
+                sink = acc;
+            };
+        });
+
+        register("persistOrder.journal", "ns/op", params("threads=1,8", "fsync=os"), p -> {
+            Path file = tempFile("journal");
+            OrderJournal journal = OrderJournal.open(file, OrderJournal.FsyncPolicy.parse(p.get("fsync")));
+            cleanup.add(journal);
+            byte[] record = OrderCodec.Format.TEXT.encode(order(3));
+            return threaded(intParam(p, "threads"), () -> journal.append(record));
+        });
+        register("persistOrder.async", "ns/op", params("threads=1", "fsync=os,always"), p -> {
+            // Time to hand an order to the writer; under "always" the ring fills and submit waits on the disk
+            Path file = tempFile("async");
+            OrderJournal journal = OrderJournal.open(file, OrderJournal.FsyncPolicy.parse(p.get("fsync")));
+            AsyncOrderWriter writer = new AsyncOrderWriter(journal, OrderCodec.Format.TEXT, null, 4096, 256);
+            cleanup.add(writer);
+            cleanup.add(journal);
+            Order template = order(3);
+            return threaded(intParam(p, "threads"),
+                    () -> writer.submit(new Order(template.getItems(), template.getTotal())));
+        });
+        register("persistOrder.fileWriterPerOrder", "ns/op", params("threads=1,8"), p -> {
+            // What Main.persistOrder did before the journal
+            Path file = tempFile("legacy");
+            String text = order(3).toString();
+            return threaded(intParam(p, "threads"), () -> {
+                try (FileWriter fw = new FileWriter(file.toFile(), true);
+                     BufferedWriter bw = new BufferedWriter(fw);
+                     PrintWriter out = new PrintWriter(bw)) {
+                    out.println("----");
+                    out.println(text);
+                }
+            });
+        });
+
+        register("checkout.stripedLocks", "ns/op", params("workload=hotSku,uniform", "threads=8"), p -> {
+            ProductCatalog catalog = catalog(10_000);
+            CheckoutEngine engine = new CheckoutEngine(catalog);
+            List<List<CartItem>> carts = checkoutCarts(catalog, p.get("workload"));
+            return threaded(intParam(p, "threads"), () -> {
+                List<CartItem> items = carts.get(ThreadLocalRandom.current().nextInt(carts.size()));
+                if (engine.reserve(items) == null) engine.release(items);
+            });
+        });
+        register("checkout.casRollback", "ns/op", params("workload=hotSku,uniform", "threads=8"), p -> {
+            // Per-line CAS reservation with rollback, as checkout() did before the engine
+            ProductCatalog catalog = catalog(10_000);
+            List<List<CartItem>> carts = checkoutCarts(catalog, p.get("workload"));
+            return threaded(intParam(p, "threads"), () -> {
+                List<CartItem> items = carts.get(ThreadLocalRandom.current().nextInt(carts.size()));
+                int taken = 0;
+                for (CartItem ci : items) {
+                    if (!catalog.findById(ci.getProduct().getId()).tryReserve(ci.getQty())) break;
+                    taken++;
+                }
+                for (int i = 0; i < taken; i++) {
+                    CartItem ci = items.get(i);
+                    catalog.findById(ci.getProduct().getId()).release(ci.getQty());
+                }
+            });
+        });
+
+        register("browse.render", "us/op", params("renderer=buffered,println", "catalogSize=100000"), p -> {
+            ProductCatalog catalog = catalog(intParam(p, "catalogSize"));
+            PrintStream out = new PrintStream(OutputStream.nullOutputStream(), false, "UTF-8");
+            if (p.get("renderer").equals("println")) {
+                // What browseProducts() did before ConsoleRenderer: String.format + println per product
+                return ops -> {
+                    for (long i = 0; i < ops; i++) {
+                        for (Product prod : catalog.all()) {
+                            out.println(String.format("[%d] %s - ₹%.2f (stock: %d) - %s", prod.getId(), prod.getName(),
+                                    prod.getPrice() / 100.0, prod.getStock(), prod.getDesc()));
+                        }
+                    }
+                };
+            }
+            ConsoleRenderer renderer = new ConsoleRenderer(out);
+            return ops -> {
+                for (long i = 0; i < ops; i++) {
+                    for (Product prod : catalog.all()) renderer.product(prod);
+                    renderer.flush();
+                }
+            };
+        });
+
+        register("search.query", "ns/op",
+                params("q=product 12345,descr prod 9999,99,usb", "catalogSize=1000000"), p -> {
+            ProductCatalog catalog = catalog(intParam(p, "catalogSize"));
+            catalog.add(new Product(intParam(p, "catalogSize") + 1, "USB-C Cable", "1m fast charging cable", 19900, 5));
+            SearchIndex index = new SearchIndex(catalog);
+            String q = p.get("q");
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) acc += index.search(q, 20).size();
+                sink = acc;
+            };
+        });
+
+        // Product objects in ProductCatalog against primitive columns plus a text arena
+        registerFootprint("catalog.footprint", params("layout=objects,columnar", "catalogSize=1000000"), p -> {
+            ProductCatalog catalog = catalog(intParam(p, "catalogSize"));
+            return p.get("layout").equals("objects") ? catalog : ColumnarCatalog.of(catalog);
+        });
+        register("catalog.scanStockValue", "us/op", params("layout=objects,columnarRow,columnar", "catalogSize=1000000"), p -> {
+            ProductCatalog catalog = catalog(intParam(p, "catalogSize"));
+            if (p.get("layout").equals("objects")) {
+                return ops -> {
+                    long acc = 0;
+                    for (long i = 0; i < ops; i++) {
+                        for (int k = 0, n = catalog.size(); k < n; k++) {
+                            Product pr = catalog.get(k);
+                            acc += pr.getPrice() * pr.getStock();
+                        }
+                    }
+                    sink = acc;
+                };
+            }
+            ColumnarCatalog columns = ColumnarCatalog.of(catalog);
+            if (p.get("layout").equals("columnarRow")) {
+                return ops -> {
+                    long acc = 0;
+                    for (long i = 0; i < ops; i++) {
+                        ColumnarCatalog.Row row = columns.row();
+                        while (row.next()) acc += row.getPrice() * row.getStock();
+                    }
+                    sink = acc;
+                };
+            }
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) acc += columns.stockValue();
+                sink = acc;
+            };
+        });
+
+        register("catalog.loadCsv", "ms/op", params("rows=100000,1000000"), p -> {
+            Path file = catalogFile(intParam(p, "rows"));
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) acc += CatalogLoader.load(file, new ProductCatalog()).rows;
+                sink = acc;
+            };
+        });
+
+        register("recovery.replay", "ms/op", params("format=text,binary", "orders=100000"), p -> {
+            OrderCodec.Format format = OrderCodec.Format.parse(p.get("format"));
+            Path file = tempFile("recovery");
+            cleanup.add(() -> Files.deleteIfExists(InventorySnapshot.fileFor(file)));
+            if (format == OrderCodec.Format.BINARY) OrderCodec.ensureHeader(file); // file is empty, so this writes it
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND))) {
+                for (int i = 0; i < intParam(p, "orders"); i++) out.write(format.encode(order(1 + i % 4)));
+            }
+            ProductCatalog catalog = catalog(4);
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) {
+                    Files.deleteIfExists(InventorySnapshot.fileFor(file)); // full replay every time
+                    acc += StockRecovery.recover(file, format, catalog, false).orders;
+                }
+                sink = acc;
+            };
+        });
+
+        register("analytics.salesReport", "ms/op", params("format=text,binary", "orders=100000"), p -> {
+            OrderCodec.Format format = OrderCodec.Format.parse(p.get("format"));
+            Path file = tempFile("analytics");
+            if (format == OrderCodec.Format.BINARY) OrderCodec.ensureHeader(file);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND))) {
+                for (int i = 0; i < intParam(p, "orders"); i++) out.write(format.encode(order(1 + i % 4)));
+            }
+            ProductCatalog catalog = catalog(4);
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) acc += OrderAnalytics.run(file, format, catalog).revenue;
+                sink = acc;
+            };
+        });
+
+        register("sales.record", "ns/op", params("cartSize=1,10", "threads=1"), p -> {
+            SalesAggregates sales = new SalesAggregates();
+            Order order = order(intParam(p, "cartSize"));
+            return threaded(intParam(p, "threads"), () -> sales.record(order));
+        });
+
+        register("metrics.histogramRecord", "ns/op", params("threads=1"), p -> {
+            Metrics.Histogram h = Metrics.histogram("bench_record_" + p.get("threads"));
+            return threaded(intParam(p, "threads"), () -> h.recordSince(Metrics.now()));
+        });
+
+        register("orderLog.findSealed", "us/op", params("orders=100000", "archived=false,true"), p -> {
+            // Lookup by id in a rolled segment through its sparse index; archives are read through gzip
+            Path file = ordersFile(intParam(p, "orders"));
+            long[] numbers;
+            try (Stream<String> lines = Files.lines(file)) {
+                numbers = lines.filter(l -> l.startsWith("OrderId: "))
+                        .mapToLong(l -> OrderIdGenerator.parse(l.substring("OrderId: ".length()))).toArray();
+            }
+            ProductCatalog catalog = catalog(4);
+            cleanup.add(() -> Files.deleteIfExists(InventorySnapshot.fileFor(file)));
+            cleanup.add(() -> Files.deleteIfExists(SalesAggregates.Snapshot.fileFor(file)));
+            cleanup.add(() -> deleteTree(OrderSegments.dirFor(file)));
+            StockRecovery.recover(file, OrderCodec.Format.TEXT, catalog, false);
+            OrderJournal journal = OrderJournal.open(file, OrderJournal.FsyncPolicy.os());
+            Checkpointer checkpointer = new Checkpointer(file, OrderCodec.Format.TEXT, catalog, Long.MAX_VALUE);
+            long retention = Boolean.parseBoolean(p.get("archived")) ? 1 : 0;
+            OrderSegments log = OrderSegments.open(file, OrderCodec.Format.TEXT, Long.MAX_VALUE, retention);
+            cleanup.add(0, log);
+            cleanup.add(1, journal);
+            cleanup.add(2, checkpointer);
+            log.start(journal, checkpointer, null, Long.MAX_VALUE);
+            log.roll();
+            log.maintain();
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) acc += log.find(numbers[(int) (i * 7919 % numbers.length)]).length();
+                sink = acc;
+            };
+        });
+
+        register("viewOrders.scannerScan", "us/op", params("orders=10000,100000"), p -> {
+            // What Main.viewOrdersFromFile does: read every line through java.util.Scanner
+            Path file = ordersFile(intParam(p, "orders"));
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) {
+                    try (Scanner sc = new Scanner(file.toFile(), "UTF-8")) {
+                        while (sc.hasNextLine()) acc += sc.nextLine().length();
+                    }
+                }
+                sink = acc;
+            };
+        });
+        register("viewOrders.indexedLast10", "us/op", params("orders=10000,100000"), p -> {
+            Path file = ordersFile(intParam(p, "orders"));
+            OrderStore store = OrderStore.open(file);
+            cleanup.add(store);
+            return ops -> {
+                long acc = 0;
+                for (long i = 0; i < ops; i++) acc += store.last(10).size();
+                sink = acc;
+            };
+        });
+    }
+
+    // ---- fixtures ----
+
+    static ProductCatalog catalog(int size) {
+        ProductCatalog catalog = new ProductCatalog(size);
+        for (int i = 1; i <= size; i++) {
+            catalog.add(new Product(i, "Product " + i, "Description of product " + i,
+                    Money.of(100 + i % 5000, i % 100), 1_000_000));
+        }
+        return catalog;
+    }
+
+    static Cart cart(ProductCatalog catalog, int lines) {
+        Cart cart = new Cart();
+        for (int i = 0; i < lines; i++) cart.add(catalog.get(i), 1 + i % 3);
+        return cart;
+    }
+
+    static Order order(int lines) {
+        Cart cart = cart(catalog(lines), lines);
+        return new Order(new ArrayList<>(cart.getItems()), cart.total());
+    }
+
+    // 1024 five-line carts; "hotSku" puts product 1 in every cart, "uniform" picks all lines at random
+    static List<List<CartItem>> checkoutCarts(ProductCatalog catalog, String workload) {
+        Random rnd = new Random(11);
+        List<List<CartItem>> carts = new ArrayList<>();
+        for (int c = 0; c < 1024; c++) {
+            Cart cart = new Cart();
+            if (workload.equals("hotSku")) cart.add(catalog.findById(1), 1);
+            while (cart.getItems().size() < 5) cart.add(catalog.get(rnd.nextInt(catalog.size())), 1);
+            carts.add(new ArrayList<>(cart.getItems()));
+        }
+        return carts;
+    }
+
+    // Power-of-two sized table of random ids in 1..catalogSize
+    static int[] randomIds(int catalogSize) {
+        int[] ids = new int[1 << 16];
+        Random rnd = new Random(7);
+        for (int i = 0; i < ids.length; i++) ids[i] = 1 + rnd.nextInt(catalogSize);
+        return ids;
+    }
+
+    static Path tempFile(String prefix) throws IOException {
+        Path file = Files.createTempFile("bench-" + prefix, ".txt");
+        file.toFile().deleteOnExit();
+        cleanup.add(() -> Files.deleteIfExists(file));
+        return file;
+    }
+
+    static void deleteTree(Path dir) throws IOException {
+        if (Files.notExists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.delete(path);
+        }
+    }
+
+    static Path ordersFile(int orders) throws IOException {
+        Path file = tempFile("orders");
+        Files.deleteIfExists(OrderStore.indexFileFor(file));
+        cleanup.add(() -> Files.deleteIfExists(OrderStore.indexFileFor(file)));
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            for (int i = 0; i < orders; i++) out.write(OrderCodec.Format.TEXT.encode(order(1 + i % 4)));
+        }
+        return file;
+    }
+
+    static Path catalogFile(int rows) throws IOException {
+        Path file = tempFile("catalog");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8))) {
+            out.write("id,name,desc,price,stock\n");
+            for (int i = 1; i <= rows; i++) {
+                out.write(i + ",Product " + i + ",\"Description, of product " + i + "\"," + (100 + i % 5000) + "." + (10 + i % 90) + ",1000\n");
+            }
+        }
+        return file;
+    }
+
+    interface Task {
+        void run() throws Exception;
+    }
+
+    // Splits each batch of ops across a fixed pool; score is wall time per op
+    static Body threaded(int threads, Task task) {
+        if (threads == 1) {
+            return ops -> {
+                for (long i = 0; i < ops; i++) task.run();
+            };
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        cleanup.add(pool::shutdownNow);
+        return ops -> {
+            List<Future<?>> parts = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long share = ops / threads + (t < ops % threads ? 1 : 0);
+                parts.add(pool.submit(() -> {
+                    for (long i = 0; i < share; i++) task.run();
+                    return null;
+                }));
+            }
+            for (Future<?> f : parts) f.get();
+        };
+    }
+
+    // ---- measurement ----
+
+    private static Result measure(Case c, Map<String, String> params) throws Exception {
+        if (c.footprint != null) return measureFootprint(c, params);
+        Body body = c.setup.create(params);
+        long batch = 1;
+        while (true) {
+            long t0 = System.nanoTime();
+            body.run(batch);
+            long elapsed = System.nanoTime() - t0;
+            if (elapsed >= TimeUnit.MILLISECONDS.toNanos(10) || batch >= (1L << 40)) break;
+            batch *= 2;
+        }
+        for (int i = 0; i < warmups; i++) runFor(body, batch);
+
+        double scale = c.unit.equals("ms/op") ? 1e6 : c.unit.equals("us/op") ? 1e3 : 1;
+        double[] samples = new double[iterations];
+        for (int i = 0; i < iterations; i++) samples[i] = runFor(body, batch) / scale;
+
+        double mean = 0;
+        for (double s : samples) mean += s;
+        mean /= samples.length;
+        double var = 0;
+        for (double s : samples) var += (s - mean) * (s - mean);
+        double sd = samples.length > 1 ? Math.sqrt(var / (samples.length - 1)) : 0;
+        return new Result(c.name, params, c.unit, mean, 3.29 * sd / Math.sqrt(samples.length), samples.length);
+    }
+
+    // Heap in use after a GC, before and after building (and while still holding) the structure
+    private static Result measureFootprint(Case c, Map<String, String> params) throws Exception {
+        double[] samples = new double[Math.min(iterations, 3)];
+        for (int i = 0; i < samples.length; i++) {
+            long before = usedHeap();
+            Object built = c.footprint.build(params);
+            long after = usedHeap();
+            sink = System.identityHashCode(built);
+            samples[i] = (after - before) / (1024.0 * 1024.0);
+        }
+        double mean = 0, min = Double.MAX_VALUE, max = 0;
+        for (double s : samples) {
+            mean += s;
+            min = Math.min(min, s);
+            max = Math.max(max, s);
+        }
+        return new Result(c.name, params, c.unit, mean / samples.length, (max - min) / 2, samples.length);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // Runs whole batches for about iterationNanos; returns nanoseconds per op
+    private static double runFor(Body body, long batch) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime(), elapsed;
+        do {
+            body.run(batch);
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        return (double) elapsed / ops;
+    }
+
+    private static List<Map<String, String>> combinations(Map<String, String[]> params) {
+        List<Map<String, String>> out = new ArrayList<>();
+        out.add(new LinkedHashMap<>());
+        for (Map.Entry<String, String[]> e : params.entrySet()) {
+            List<Map<String, String>> next = new ArrayList<>();
+            for (Map<String, String> partial : out) {
+                for (String v : e.getValue()) {
+                    Map<String, String> m = new LinkedHashMap<>(partial);
+                    m.put(e.getKey(), v);
+                    next.add(m);
+                }
+            }
+            out = next;
+        }
+        return out;
+    }
+
+    private static String toJson(List<Result> results) {
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            sb.append("  {\"benchmark\": \"").append(r.name).append("\", \"params\": {");
+            int n = 0;
+            for (Map.Entry<String, String> e : r.params.entrySet()) {
+                if (n++ > 0) sb.append(", ");
+                sb.append('"').append(e.getKey()).append("\": \"").append(e.getValue()).append('"');
+            }
+            sb.append("}, \"mode\": \"avgt\", \"unit\": \"").append(r.unit)
+                    .append("\", \"score\": ").append(String.format(Locale.ROOT, "%.4f", r.score))
+                    .append(", \"scoreError\": ").append(String.format(Locale.ROOT, "%.4f", r.error))
+                    .append(", \"samples\": ").append(r.samples).append('}')
+                    .append(i + 1 < results.size() ? ",\n" : "\n");
+        }
+        return sb.append("]\n").toString();
+    }
+}
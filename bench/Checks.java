@@ -0,0 +1,210 @@
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/*
+ * Stress checks for the shop's concurrent paths, run like the benchmarks (no test framework).
+ * - Each check hammers one shared structure from many threads, then verifies an invariant
+ *   that a lost update or a race would break
+ * - Prints PASS/FAIL per check and exits with status 1 if any failed
+ *
+ * Build and run from the project root:
+ *   javac -d out *.java bench/*.java
+ *   java -cp out Checks [regex filter]
+ */
+public class Checks {
+    interface Check {
+        /** Returns null when the invariant held, otherwise what went wrong. */
+        String run() throws Exception;
+    }
+
+    private static final Map<String, Check> checks = new LinkedHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        register();
+        Pattern filter = args.length > 0 ? Pattern.compile(args[0]) : null;
+        int failed = 0;
+        for (Map.Entry<String, Check> e : checks.entrySet()) {
+            if (filter != null && !filter.matcher(e.getKey()).find()) continue;
+            long t0 = System.nanoTime();
+            String problem;
+            try {
+                problem = e.getValue().run();
+            } catch (Exception | AssertionError ex) {
+                problem = ex.toString();
+            }
+            String took = String.format("%.2f s", (System.nanoTime() - t0) / 1e9);
+            if (problem == null) {
+                System.out.println("PASS " + e.getKey() + " (" + took + ")");
+            } else {
+                failed++;
+                System.out.println("FAIL " + e.getKey() + " (" + took + "): " + problem);
+            }
+        }
+        if (failed > 0) System.exit(1);
+    }
+
+    private static void register() {
+        // 64 threads race tryReserve on one product until it is sold out: every unit must be
+        // sold exactly once and stock must end at zero, whether it lives in the Product or
+        // in an InventoryTable
+        checks.put("product.tryReserve.noOversell", () -> noOversell(null));
+        checks.put("inventoryTable.tryReserve.noOversell", () -> {
+            Path file = Files.createTempFile("checks-inventory", ".dat");
+            Files.delete(file);
+            try (InventoryTable table = InventoryTable.open(file)) {
+                return noOversell(table);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        });
+        // 64 threads check out overlapping multi-line carts through CheckoutEngine, some of which
+        // lose a line after validation and must roll back: per SKU, what the placed carts hold
+        // must be exactly the stock that went, so a partly reserved or leaked cart shows up
+        checks.put("checkoutEngine.reserve.allOrNothing", Checks::allOrNothing);
+        // 32 threads draw 10M ids from one generator: no id may repeat, each thread must see
+        // its ids strictly increasing, and every id must carry the generator's node
+        checks.put("snowflakeIdGenerator.unique", () -> uniqueIds(32, 10_000_000));
+    }
+
+    private static String noOversell(InventoryTable table) throws Exception {
+        final int threads = 64, stock = 100_000, rounds = 20;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                Product p = new Product(round + 1, "Item " + round, "", 100, stock);
+                if (table != null) p.bindInventory(table);
+                AtomicLong sold = new AtomicLong();
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> done = new ArrayList<>(threads);
+                for (int t = 0; t < threads; t++) {
+                    done.add(pool.submit(() -> {
+                        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                        start.await();
+                        long mine = 0;
+                        while (true) {
+                            int qty = 1 + rnd.nextInt(5);
+                            if (p.tryReserve(qty)) mine += qty;
+                            else if (qty == 1) break; // nothing left at all
+                        }
+                        sold.addAndGet(mine);
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> f : done) f.get();
+                if (sold.get() != stock || p.getStock() != 0) {
+                    return "round " + round + ": sold " + sold.get() + " of " + stock + ", stock left " + p.getStock();
+                }
+            }
+            return null;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Loses the race for stock now and then, as if another process had taken it between
+    // CheckoutEngine's check and its reservation; like a real failure it changes nothing
+    private static final class ContendedProduct extends Product {
+        ContendedProduct(int id, int stock) {
+            super(id, "SKU " + id, "", 100, stock);
+        }
+
+        @Override
+        public boolean tryReserve(int qty) {
+            return ThreadLocalRandom.current().nextInt(20) != 0 && super.tryReserve(qty);
+        }
+    }
+
+    private static String allOrNothing() throws Exception {
+        final int threads = 64, skus = 16, stock = 20_000, attempts = 5_000;
+        ProductCatalog catalog = new ProductCatalog();
+        for (int id = 1; id <= skus; id++) catalog.add(new ContendedProduct(id, stock));
+        CheckoutEngine engine = new CheckoutEngine(catalog);
+        long[][] sold = new long[threads][skus + 1];
+        AtomicLong rollbacks = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> done = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                long[] mine = sold[t];
+                done.add(pool.submit(() -> {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    start.await();
+                    for (int a = 0; a < attempts; a++) {
+                        Map<Integer, CartItem> cart = new LinkedHashMap<>();
+                        int lines = 2 + rnd.nextInt(4);
+                        while (cart.size() < lines) {
+                            Product p = catalog.findById(1 + rnd.nextInt(skus));
+                            cart.putIfAbsent(p.getId(), new CartItem(p, 1 + rnd.nextInt(3)));
+                        }
+                        CartItem failed = engine.reserve(cart.values());
+                        if (failed != null) {
+                            if (failed.getQty() <= failed.getProduct().getStock()) rollbacks.incrementAndGet();
+                            continue;
+                        }
+                        if (rnd.nextInt(4) == 0) {
+                            engine.release(cart.values()); // order cancelled: all of it comes back
+                            continue;
+                        }
+                        for (CartItem ci : cart.values()) mine[ci.getProduct().getId()] += ci.getQty();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : done) f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+        if (rollbacks.get() == 0) return "no checkout had to roll back; the check proved nothing";
+        for (int id = 1; id <= skus; id++) {
+            long total = 0;
+            for (long[] mine : sold) total += mine[id];
+            int left = catalog.findById(id).getStock();
+            if (left < 0 || total != stock - left) {
+                return "SKU " + id + ": carts hold " + total + " but stock went from " + stock + " to " + left;
+            }
+        }
+        return null;
+    }
+
+    private static String uniqueIds(int threads, int total) throws Exception {
+        final int node = 7;
+        SnowflakeIdGenerator gen = new SnowflakeIdGenerator(node);
+        long[] ids = new long[total];
+        int per = total / threads;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<String>> done = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                int from = t * per, to = t == threads - 1 ? total : from + per;
+                done.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = from; i < to; i++) {
+                        ids[i] = gen.nextId();
+                        if (i > from && ids[i] <= ids[i - 1]) return "ids went backwards within a thread at " + i;
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<String> f : done) {
+                String problem = f.get();
+                if (problem != null) return problem;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Arrays.sort(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0 && ids[i] == ids[i - 1]) return "duplicate id " + ids[i];
+            if (SnowflakeIdGenerator.nodeOf(ids[i]) != node) return "id " + ids[i] + " has node " + SnowflakeIdGenerator.nodeOf(ids[i]);
+        }
+        return null;
+    }
+}
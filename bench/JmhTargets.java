@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongSupplier;
+
+/*
+ * Entry points for the JMH benchmarks in jmh/.
+ * - JMH will not generate code for benchmarks in the default package, and a named package
+ *   cannot import classes from it, so the benchmarks look these methods up by name once, in
+ *   their setup, and time the plain JDK functional object each one returns
+ * - Fixtures are Bench's, so both harnesses measure the same work on the same data
+ * - close() releases the files and journals opened since the last call
+ */
+public class JmhTargets {
+
+    /** The stock of product id, looked up in a catalog of catalogSize products. */
+    public static IntToLongFunction findById(int catalogSize) {
+        ProductCatalog catalog = Bench.catalog(catalogSize);
+        return id -> catalog.findById(id).getStock();
+    }
+
+    /** Ids to look up in a catalog of catalogSize: random, in a power-of-two sized table. */
+    public static int[] randomIds(int catalogSize) {
+        return Bench.randomIds(catalogSize);
+    }
+
+    /** Adds one more product to a cart of cartSize lines and removes it again. */
+    public static LongSupplier cartAddRemove(int cartSize) {
+        ProductCatalog catalog = Bench.catalog(cartSize + 1);
+        Cart cart = Bench.cart(catalog, cartSize);
+        Product extra = catalog.get(catalog.size() - 1);
+        return () -> {
+            cart.add(extra, 1);
+            cart.remove(extra.getId());
+            return cart.total();
+        };
+    }
+
+    /** The total of a cart of cartSize lines. */
+    public static LongSupplier cartTotal(int cartSize) {
+        Cart cart = Bench.cart(Bench.catalog(cartSize), cartSize);
+        return cart::total;
+    }
+
+    /** Builds an order of cartSize lines and formats it as the orders file does. */
+    public static LongSupplier orderCreateAndToString(int cartSize) {
+        Cart cart = Bench.cart(Bench.catalog(cartSize), cartSize);
+        List<CartItem> items = new ArrayList<>(cart.getItems());
+        long total = cart.total();
+        return () -> new Order(items, total).toString().length();
+    }
+
+    /** Appends a three-line order to a journal under fsync ("os", "always" or an interval). */
+    public static LongSupplier persistOrder(String fsync) throws IOException {
+        OrderJournal journal = OrderJournal.open(Bench.tempFile("jmh-journal"), OrderJournal.FsyncPolicy.parse(fsync));
+        Bench.closeLater(journal);
+        byte[] record = OrderCodec.Format.TEXT.encode(Bench.order(3));
+        return () -> {
+            try {
+                return journal.append(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    /** Reads a text orders file of the given number of orders line by line, as Main.viewOrdersFromFile does. */
+    public static LongSupplier viewOrdersScan(int orders) throws IOException {
+        Path file = Bench.ordersFile(orders);
+        return () -> {
+            long chars = 0;
+            try (Scanner sc = new Scanner(file.toFile(), "UTF-8")) {
+                while (sc.hasNextLine()) chars += sc.nextLine().length();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return chars;
+        };
+    }
+
+    public static void close() throws Exception {
+        Bench.closeAll();
+    }
+}
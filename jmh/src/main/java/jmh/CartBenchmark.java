@@ -0,0 +1,41 @@
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Cart operations on a cart that already holds cartSize lines.
+ * - addRemove adds one more product and removes it again, leaving the cart as it was
+ * - total reads the cart's running total
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CartBenchmark {
+    @Param({"1", "10", "1000"})
+    int cartSize;
+
+    private LongSupplier addRemove;
+    private LongSupplier total;
+
+    @Setup
+    public void setup() throws Exception {
+        addRemove = Targets.get(LongSupplier.class, "cartAddRemove", cartSize);
+        total = Targets.get(LongSupplier.class, "cartTotal", cartSize);
+    }
+
+    @Benchmark
+    public long addRemove() {
+        return addRemove.getAsLong();
+    }
+
+    @Benchmark
+    public long total() {
+        return total.getAsLong();
+    }
+}
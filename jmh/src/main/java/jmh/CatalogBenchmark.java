@@ -0,0 +1,36 @@
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToLongFunction;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Product lookup by id (Main.findProductById goes through ProductCatalog.findById).
+ * - Ids come from a power-of-two table of random ids, so lookups do not hit one cache line
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CatalogBenchmark {
+    @Param({"10", "10000", "1000000"})
+    int catalogSize;
+
+    private IntToLongFunction findById;
+    private int[] ids;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        findById = Targets.get(IntToLongFunction.class, "findById", catalogSize);
+        ids = Targets.get(int[].class, "randomIds", catalogSize);
+    }
+
+    @Benchmark
+    public long findById() {
+        return findById.applyAsLong(ids[next++ & (ids.length - 1)]);
+    }
+}
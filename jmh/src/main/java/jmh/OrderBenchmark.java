@@ -0,0 +1,33 @@
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Building an Order from cartSize lines and formatting it with toString, as checkout does
+ * before the order is written.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderBenchmark {
+    @Param({"1", "10", "100"})
+    int cartSize;
+
+    private LongSupplier createAndToString;
+
+    @Setup
+    public void setup() throws Exception {
+        createAndToString = Targets.get(LongSupplier.class, "orderCreateAndToString", cartSize);
+    }
+
+    @Benchmark
+    public long createAndToString() {
+        return createAndToString.getAsLong();
+    }
+}
@@ -0,0 +1,40 @@
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Order persistence throughput: appends a three-line order to one shared OrderJournal.
+ * - Run with -t 8 (or more) to see concurrent appends group-committed
+ * - fsync is the journal's FsyncPolicy: "os" leaves flushing to the OS, "always" forces
+ *   every group commit to disk
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistOrderBenchmark {
+    @Param({"os", "always"})
+    String fsync;
+
+    private LongSupplier persist;
+
+    @Setup
+    public void setup() throws Exception {
+        persist = Targets.get(LongSupplier.class, "persistOrder", fsync);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Targets.close();
+    }
+
+    @Benchmark
+    public long persistOrder() {
+        return persist.getAsLong();
+    }
+}
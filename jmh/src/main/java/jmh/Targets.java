@@ -0,0 +1,45 @@
+package jmh;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/*
+ * Reaches the shop's code through JmhTargets (bench/JmhTargets.java).
+ * - The shop lives in the default package, which a named package cannot import, and JMH
+ *   refuses benchmarks in the default package; JmhTargets is looked up by name instead
+ * - Only setup goes through reflection: each call returns a JDK functional object that
+ *   the benchmark then invokes directly
+ */
+final class Targets {
+    private static final Class<?> BRIDGE = load();
+
+    private Targets() {
+    }
+
+    private static Class<?> load() {
+        try {
+            return Class.forName("JmhTargets");
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("JmhTargets is not on the class path; install the shop jar first", e);
+        }
+    }
+
+    /** Calls JmhTargets.method(args) and casts the result to type. */
+    static <T> T get(Class<T> type, String method, Object... args) throws Exception {
+        for (Method m : BRIDGE.getMethods()) {
+            if (!m.getName().equals(method) || m.getParameterCount() != args.length) continue;
+            try {
+                return type.cast(m.invoke(null, args));
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+        throw new NoSuchMethodException("JmhTargets." + method);
+    }
+
+    /** Releases what the targets opened (journals, temp files). */
+    static void close() throws Exception {
+        get(Object.class, "close");
+    }
+}
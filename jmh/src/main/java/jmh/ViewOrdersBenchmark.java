@@ -0,0 +1,38 @@
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * The order history scan behind Main.viewOrdersFromFile: every line of a text orders file
+ * of the given number of orders, read through java.util.Scanner.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ViewOrdersBenchmark {
+    @Param({"10000", "100000"})
+    int orders;
+
+    private LongSupplier scan;
+
+    @Setup
+    public void setup() throws Exception {
+        scan = Targets.get(LongSupplier.class, "viewOrdersScan", orders);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Targets.close();
+    }
+
+    @Benchmark
+    public long scan() {
+        return scan.getAsLong();
+    }
+}